@@ -0,0 +1,451 @@
+package RayTracing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index over the primitives of a scene. Bounded primitives are kept
+ * in a BVH, infinite ones (planes) in a separate list that every ray tests.
+ * Both are stored packed, in BVH order, for the intersection kernel.
+ * Built once per render and shared read-only by all workers, each of which
+ * runs its queries through its own Query. A BVH loaded from a scene cache can
+ * be passed in to skip the build.
+ */
+class Accelerator {
+
+	final BVH bvh;
+	// the scene's primitives when built, see isFor
+	private final Primitive[] source;
+	// bounded primitives in BVH order
+	private final PackedPrimitives primitives;
+	private final PackedPrimitives unbounded;
+	private final IntersectionKernel kernel = IntersectionKernel.INSTANCE;
+
+	Accelerator(List<Primitive> scenePrimitives) {
+		this(scenePrimitives, null);
+	}
+
+	/**
+	 * @param prebuilt BVH over the bounded primitives, in scene order, or
+	 * null to build one
+	 */
+	Accelerator(List<Primitive> scenePrimitives, BVH prebuilt) {
+		source = scenePrimitives.toArray(new Primitive[0]);
+		List<Primitive> bounded = new ArrayList<>();
+		List<Primitive> infinite = new ArrayList<>();
+		List<BoundingBox> boxes = new ArrayList<>();
+
+		for (Primitive primitive : scenePrimitives) {
+			BoundingBox box = primitive.shape.getBounds();
+			if (box.isInfinite()) {
+				infinite.add(primitive);
+			}
+			else {
+				bounded.add(primitive);
+				boxes.add(box);
+			}
+		}
+
+		if (prebuilt != null) {
+			if (prebuilt.size() != boxes.size())
+				throw new IllegalArgumentException("BVH is for " + prebuilt.size() + " primitives, not " + boxes.size());
+			bvh = prebuilt;
+		}
+		else {
+			double[] itemBounds = new double[boxes.size()*6];
+			for (int i = 0; i < boxes.size(); i++) {
+				BoundingBox box = boxes.get(i);
+				itemBounds[i*6]   = box.minX;
+				itemBounds[i*6+1] = box.minY;
+				itemBounds[i*6+2] = box.minZ;
+				itemBounds[i*6+3] = box.maxX;
+				itemBounds[i*6+4] = box.maxY;
+				itemBounds[i*6+5] = box.maxZ;
+			}
+			bvh = new BVH(itemBounds, boxes.size());
+		}
+
+		Primitive[] ordered = new Primitive[bounded.size()];
+		for (int i = 0; i < ordered.length; i++) {
+			ordered[i] = bounded.get(bvh.order[i]);
+		}
+		primitives = new PackedPrimitives(ordered);
+		unbounded = new PackedPrimitives(infinite.toArray(new Primitive[0]));
+	}
+
+	/**
+	 * Whether this was built over exactly these primitives, so that a scene
+	 * changed after loading is not traced with a stale tree.
+	 */
+	boolean isFor(List<Primitive> scenePrimitives) {
+		if (scenePrimitives.size() != source.length)
+			return false;
+		for (int i = 0; i < source.length; i++) {
+			if (scenePrimitives.get(i) != source[i])
+				return false;
+		}
+		return true;
+	}
+
+	Query newQuery() {
+		return new Query();
+	}
+
+	Hit getClosestHit(Ray ray) {
+		Hit hit = new Hit();
+		if (!newQuery().getClosestHit(ray.p0.x, ray.p0.y, ray.p0.z, ray.dir.x, ray.dir.y, ray.dir.z, hit))
+			return null;
+		return hit;
+	}
+
+	/**
+	 * Scratch space for the queries of one thread, so that they don't allocate.
+	 * Ray directions passed to a query must be of unit length.
+	 */
+	class Query {
+		private final int[] stack = bvh.newStack();
+		private final double[] dist = new double[IntersectionKernel.SCRATCH_SIZE];
+
+		// closest primitive found so far by the current closest hit query
+		private Primitive closest;
+		private double minDist;
+
+		// packets: inverse directions of the rays, and the range of the origins
+		// and inverse directions on every axis
+		private final double[] invX = new double[RayPacket.MAX_SIZE];
+		private final double[] invY = new double[RayPacket.MAX_SIZE];
+		private final double[] invZ = new double[RayPacket.MAX_SIZE];
+		private final double[] packetBounds = new double[12];
+
+		// primitives tested by the queries so far
+		long intersectionTests;
+
+		// shadow queries: for every light, the opaque primitive that last
+		// blocked a ray towards it, as its packed array and index, -1 for none
+		private PackedPrimitives[] occluders = new PackedPrimitives[0];
+		private int[] occluderIndices = new int[0];
+		// opaque primitive that ended the last transmittance query, if any
+		private PackedPrimitives blocker;
+		private int blockerIndex;
+		// shadow queries the cached occluder blocked, and ones it didn't
+		long occluderHits, occluderMisses;
+
+		/**
+		 * Finds the closest primitive along the ray and stores it in hit.
+		 * Returns false, leaving hit untouched, if the ray hits nothing.
+		 */
+		boolean getClosestHit(double ox, double oy, double oz, double dx, double dy, double dz, Hit hit) {
+			findClosest(ox, oy, oz, dx, dy, dz);
+			if (closest == null)
+				return false;
+			hit.set(closest, minDist, ox, oy, oz, dx, dy, dz);
+			return true;
+		}
+
+		private void findClosest(double ox, double oy, double oz, double dx, double dy, double dz) {
+			closest = null;
+			minDist = Double.MAX_VALUE;
+
+			for (int start = 0; start < unbounded.size; start += BVH.MAX_LEAF_SIZE) {
+				int count = Math.min(BVH.MAX_LEAF_SIZE, unbounded.size - start);
+				intersect(unbounded, start, count, ox, oy, oz, dx, dy, dz);
+			}
+
+			double invX = BVH.inverse(dx);
+			double invY = BVH.inverse(dy);
+			double invZ = BVH.inverse(dz);
+
+			int top = 0;
+			stack[top++] = 0;
+
+			while (top > 0) {
+				int node = stack[--top];
+				if (bvh.getEntryDistance(node, ox, oy, oz, invX, invY, invZ, minDist) == -1)
+					continue;
+
+				int count = bvh.nodeCount[node];
+				if (count > 0) {
+					intersect(primitives, bvh.nodeStart[node], count, ox, oy, oz, dx, dy, dz);
+					continue;
+				}
+
+				// visit the nearer child first so that minDist shrinks early
+				int left = node+1;
+				int right = bvh.nodeStart[node];
+				double leftDist  = bvh.getEntryDistance(left,  ox, oy, oz, invX, invY, invZ, minDist);
+				double rightDist = bvh.getEntryDistance(right, ox, oy, oz, invX, invY, invZ, minDist);
+				if (leftDist == -1 && rightDist == -1)
+					continue;
+				if (leftDist == -1) {
+					stack[top++] = right;
+				}
+				else if (rightDist == -1) {
+					stack[top++] = left;
+				}
+				else if (leftDist <= rightDist) {
+					stack[top++] = right;
+					stack[top++] = left;
+				}
+				else {
+					stack[top++] = left;
+					stack[top++] = right;
+				}
+			}
+		}
+
+		// updates closest and minDist with the primitives in [start, start+count)
+		private void intersect(PackedPrimitives packed, int start, int count,
+				double ox, double oy, double oz, double dx, double dy, double dz) {
+			kernel.intersect(packed, start, count, ox, oy, oz, dx, dy, dz, dist);
+			intersectionTests += count;
+			for (int i = 0; i < count; i++) {
+				if (dist[i] != -1 && dist[i] < minDist) {
+					closest = packed.primitives[start+i];
+					minDist = dist[i];
+				}
+			}
+		}
+
+		/**
+		 * Finds the closest primitive of every ray of the packet. Inner nodes are
+		 * rejected for the whole packet at once, using interval bounds on the
+		 * distances at which its rays enter and leave the node. Leaves are
+		 * tested ray by ray. Packets whose directions differ in sign on an axis
+		 * have no such bounds and are traced one ray at a time.
+		 */
+		void getClosestHits(RayPacket packet) {
+			int size = packet.size;
+			if (!setPacketBounds(packet)) {
+				for (int r = 0; r < size; r++) {
+					findClosest(packet.ox[r], packet.oy[r], packet.oz[r], packet.dx[r], packet.dy[r], packet.dz[r]);
+					packet.closest[r] = closest;
+					packet.dist[r] = minDist;
+				}
+				return;
+			}
+
+			for (int r = 0; r < size; r++) {
+				closest = null;
+				minDist = Double.MAX_VALUE;
+				for (int start = 0; start < unbounded.size; start += BVH.MAX_LEAF_SIZE) {
+					int count = Math.min(BVH.MAX_LEAF_SIZE, unbounded.size - start);
+					intersect(unbounded, start, count,
+						packet.ox[r], packet.oy[r], packet.oz[r], packet.dx[r], packet.dy[r], packet.dz[r]);
+				}
+				packet.closest[r] = closest;
+				packet.dist[r] = minDist;
+			}
+
+			int top = 0;
+			stack[top++] = 0;
+
+			while (top > 0) {
+				int node = stack[--top];
+				double packetDist = 0;
+				for (int r = 0; r < size; r++) {
+					packetDist = Math.max(packetDist, packet.dist[r]);
+				}
+				if (packetMisses(node, packetDist))
+					continue;
+
+				int count = bvh.nodeCount[node];
+				if (count > 0) {
+					int start = bvh.nodeStart[node];
+					for (int r = 0; r < size; r++) {
+						double ox = packet.ox[r], oy = packet.oy[r], oz = packet.oz[r];
+						if (bvh.getEntryDistance(node, ox, oy, oz, invX[r], invY[r], invZ[r], packet.dist[r]) == -1)
+							continue;
+						closest = packet.closest[r];
+						minDist = packet.dist[r];
+						intersect(primitives, start, count, ox, oy, oz, packet.dx[r], packet.dy[r], packet.dz[r]);
+						packet.closest[r] = closest;
+						packet.dist[r] = minDist;
+					}
+					continue;
+				}
+
+				// order the children by the first ray of the packet
+				int left = node+1;
+				int right = bvh.nodeStart[node];
+				double leftDist  = bvh.getEntryDistance(left,
+					packet.ox[0], packet.oy[0], packet.oz[0], invX[0], invY[0], invZ[0], Double.MAX_VALUE);
+				double rightDist = bvh.getEntryDistance(right,
+					packet.ox[0], packet.oy[0], packet.oz[0], invX[0], invY[0], invZ[0], Double.MAX_VALUE);
+				if (rightDist != -1 && (leftDist == -1 || rightDist < leftDist)) {
+					stack[top++] = left;
+					stack[top++] = right;
+				}
+				else {
+					stack[top++] = right;
+					stack[top++] = left;
+				}
+			}
+		}
+
+		/**
+		 * Computes the inverse directions of the packet and the range of its
+		 * origins and inverse directions on every axis. Returns false if the
+		 * inverse directions of some axis differ in sign.
+		 */
+		private boolean setPacketBounds(RayPacket packet) {
+			double[] bounds = packetBounds;
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[axis]   = Double.POSITIVE_INFINITY;
+				bounds[axis+3] = Double.NEGATIVE_INFINITY;
+				bounds[axis+6] = Double.POSITIVE_INFINITY;
+				bounds[axis+9] = Double.NEGATIVE_INFINITY;
+			}
+			for (int r = 0; r < packet.size; r++) {
+				invX[r] = BVH.inverse(packet.dx[r]);
+				invY[r] = BVH.inverse(packet.dy[r]);
+				invZ[r] = BVH.inverse(packet.dz[r]);
+				include(bounds, 0, packet.ox[r], packet.oy[r], packet.oz[r]);
+				include(bounds, 6, invX[r], invY[r], invZ[r]);
+			}
+			for (int axis = 0; axis < 3; axis++) {
+				if (bounds[axis+6] < 0 != bounds[axis+9] < 0)
+					return false;
+			}
+			return true;
+		}
+
+		private void include(double[] bounds, int offset, double x, double y, double z) {
+			bounds[offset]   = Math.min(bounds[offset],   x);
+			bounds[offset+1] = Math.min(bounds[offset+1], y);
+			bounds[offset+2] = Math.min(bounds[offset+2], z);
+			bounds[offset+3] = Math.max(bounds[offset+3], x);
+			bounds[offset+4] = Math.max(bounds[offset+4], y);
+			bounds[offset+5] = Math.max(bounds[offset+5], z);
+		}
+
+		/**
+		 * True if every ray of the packet misses the node or only reaches it
+		 * beyond maxDist. Every ray enters the node no earlier than the largest
+		 * lower bound of the near slab distances, and leaves it no later than
+		 * the smallest upper bound of the far slab distances.
+		 */
+		private boolean packetMisses(int node, double maxDist) {
+			double[] bounds = packetBounds;
+			int b = node*6;
+			double entry = Double.NEGATIVE_INFINITY;
+			double exit = Double.POSITIVE_INFINITY;
+			for (int axis = 0; axis < 3; axis++) {
+				double minOrigin = bounds[axis];
+				double maxOrigin = bounds[axis+3];
+				double minInverse = bounds[axis+6];
+				double maxInverse = bounds[axis+9];
+				boolean positive = minInverse > 0;
+				double near = bvh.nodeBounds[b + (positive ? axis : axis+3)];
+				double far  = bvh.nodeBounds[b + (positive ? axis+3 : axis)];
+
+				entry = Math.max(entry, Math.min(
+					Math.min((near - maxOrigin)*minInverse, (near - maxOrigin)*maxInverse),
+					Math.min((near - minOrigin)*minInverse, (near - minOrigin)*maxInverse)));
+				exit = Math.min(exit, Math.max(
+					Math.max((far - maxOrigin)*minInverse, (far - maxOrigin)*maxInverse),
+					Math.max((far - minOrigin)*minInverse, (far - minOrigin)*maxInverse)));
+			}
+			return entry > exit || exit < 0 || entry > maxDist;
+		}
+
+		/**
+		 * getTransmittance of a shadow ray towards the light with the given
+		 * index. The opaque primitive that last blocked a ray towards that
+		 * light is tested first, and a ray it blocks takes no other test. It
+		 * is forgotten at the first ray it doesn't block.
+		 */
+		double getTransmittance(int light, double ox, double oy, double oz, double dx, double dy, double dz,
+				double maxDist) {
+			if (light >= occluders.length) {
+				occluders = Arrays.copyOf(occluders, light+1);
+				int size = occluderIndices.length;
+				occluderIndices = Arrays.copyOf(occluderIndices, light+1);
+				Arrays.fill(occluderIndices, size, light+1, -1);
+			}
+
+			int index = occluderIndices[light];
+			if (index >= 0) {
+				kernel.intersect(occluders[light], index, 1, ox, oy, oz, dx, dy, dz, dist);
+				intersectionTests++;
+				if (dist[0] != -1 && dist[0] <= maxDist) {
+					occluderHits++;
+					return 0;
+				}
+				// the ray left the occluder's shadow, so that lit rays don't
+				// keep testing it
+				occluderMisses++;
+				occluderIndices[light] = -1;
+			}
+
+			blocker = null;
+			double transmittance = getTransmittance(ox, oy, oz, dx, dy, dz, maxDist);
+			if (blocker != null) {
+				occluders[light] = blocker;
+				occluderIndices[light] = blockerIndex;
+			}
+			return transmittance;
+		}
+
+		/**
+		 * Fraction of light that passes along the ray up to maxDist. Occluders
+		 * multiply it by their transparency in whatever order they are found,
+		 * and the traversal stops as soon as an opaque one is hit.
+		 */
+		double getTransmittance(double ox, double oy, double oz, double dx, double dy, double dz, double maxDist) {
+			double transmittance = 1;
+
+			for (int start = 0; start < unbounded.size; start += BVH.MAX_LEAF_SIZE) {
+				int count = Math.min(BVH.MAX_LEAF_SIZE, unbounded.size - start);
+				transmittance *= getTransmittance(unbounded, start, count, ox, oy, oz, dx, dy, dz, maxDist);
+				if (transmittance == 0)
+					return 0;
+			}
+
+			double invX = BVH.inverse(dx);
+			double invY = BVH.inverse(dy);
+			double invZ = BVH.inverse(dz);
+
+			int top = 0;
+			stack[top++] = 0;
+
+			while (top > 0) {
+				int node = stack[--top];
+				if (bvh.getEntryDistance(node, ox, oy, oz, invX, invY, invZ, maxDist) == -1)
+					continue;
+
+				int count = bvh.nodeCount[node];
+				if (count > 0) {
+					transmittance *= getTransmittance(primitives, bvh.nodeStart[node], count,
+						ox, oy, oz, dx, dy, dz, maxDist);
+					if (transmittance == 0)
+						return 0;
+				}
+				else {
+					stack[top++] = bvh.nodeStart[node];
+					stack[top++] = node+1;
+				}
+			}
+
+			return transmittance;
+		}
+
+		private double getTransmittance(PackedPrimitives packed, int start, int count,
+				double ox, double oy, double oz, double dx, double dy, double dz, double maxDist) {
+			double transmittance = 1;
+			kernel.intersect(packed, start, count, ox, oy, oz, dx, dy, dz, dist);
+			intersectionTests += count;
+			for (int i = 0; i < count; i++) {
+				if (dist[i] != -1 && dist[i] <= maxDist) {
+					double trans = packed.primitives[start+i].material.trans;
+					transmittance *= trans;
+					if (trans == 0) {
+						blocker = packed;
+						blockerIndex = start+i;
+					}
+				}
+			}
+			return transmittance;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+public class AllocationTest {
+
+	private static final int SIZE = 32;
+	private static final int SAMPLES = 4;
+	private static final int WARMUP_PASSES = 20;
+
+	@Test
+	public void tracingDoesNotAllocate() {
+		RayTracer tracer = new RayTracer(createScene(), new RenderSettings(SIZE, SIZE, 4, 1, true, SAMPLES));
+		tracer.prepare();
+		RayTracingWorker worker = new RayTracingWorker(tracer);
+		double[] rgb = new double[3];
+
+		// let the JIT compile the hot path, vector kernels only stop boxing once compiled
+		for (int i = 0; i < WARMUP_PASSES; i++) {
+			render(worker, rgb);
+		}
+
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		render(worker, rgb);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		long rays = SIZE*SIZE*SAMPLES;
+		double bytesPerRay = allocated / (double) rays;
+		assertTrue("allocated " + bytesPerRay + " bytes per primary ray", bytesPerRay < 1);
+	}
+
+	private static void render(RayTracingWorker worker, double[] rgb) {
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				worker.getPixelColor(x, y, rgb);
+			}
+		}
+	}
+
+	// also the scene of RenderCoordinatorTest
+	static Scene createScene() {
+		Scene scene = new Scene();
+		scene.camera = new Camera(0, 2, -10, 0, 0, 0, 0, 1, 0, 1.5, 1.2);
+		scene.settings = new SceneSettings(0.1, 0.2, 0.3, 3, 4);
+
+		Material shiny = new Material(0.9, 0.2, 0.2, 1, 1, 1, 0.2, 0.2, 0.2, 30, 0);
+		Material glass = new Material(0.2, 0.9, 0.2, 0.5, 0.5, 0.5, 0, 0, 0, 10, 0.5);
+		Material matte = new Material(0.7, 0.7, 0.7, 0, 0, 0, 0.3, 0.3, 0.3, 1, 0);
+		scene.materials.add(shiny);
+		scene.materials.add(glass);
+		scene.materials.add(matte);
+
+		scene.primitives.add(new Primitive(new Sphere(0, 0, 0, 1), shiny));
+		scene.primitives.add(new Primitive(new Sphere(2, 0.5, 1, 1.2), glass));
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), matte));
+		scene.primitives.add(new Primitive(new Box(-3, -0.5, 3, 1, 2, 1, 0, 0, 0), shiny));
+
+		scene.lights.add(new Light(0, 5, -5, 1, 1, 1, 1, 0.8, 1));
+		scene.lights.add(new Light(-5, 5, 0, 0.5, 0.5, 0.8, 0.5, 0.5, 1));
+		return scene;
+	}
+
+}
@@ -0,0 +1,229 @@
+package RayTracing;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import RayTracing.RayTracer.RayTracerException;
+
+/**
+ * Renders a camera path through a scene into a numbered image sequence. Only
+ * the camera and the lights move, so the scene is parsed and its BVH built
+ * once for all frames, and every frame is rendered on the same pool. Each
+ * frame is encoded to png on another thread while the next one renders.
+ *
+ * The path file has one keyframe per line:
+ *	cam frame px py pz lx ly lz ux uy uz screen-distance screen-width
+ *	lgt frame light px py pz
+ * where the camera parameters are those of the scene file, and light is the
+ * number of a light in the scene, counting from 1. Frames between keyframes
+ * interpolate them linearly. The animation ends at the last camera keyframe.
+ */
+public class AnimationRenderer {
+
+	static class Path {
+		// frame -> camera parameters
+		final TreeMap<Integer, double[]> camera = new TreeMap<>();
+		// light index -> frame -> position
+		final Map<Integer, TreeMap<Integer, double[]>> lights = new HashMap<>();
+
+		int getFrameCount() {
+			return camera.lastKey() + 1;
+		}
+
+		Camera getCamera(int frame) {
+			double[] p = interpolate(camera, frame);
+			return new Camera(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], p[9], p[10]);
+		}
+
+		/**
+		 * Sets the camera of the scene and moves its lights to where they are
+		 * in the given frame.
+		 */
+		void apply(Scene scene, int frame) {
+			scene.camera = getCamera(frame);
+			for (Map.Entry<Integer, TreeMap<Integer, double[]>> keys : lights.entrySet()) {
+				Light light = scene.lights.get(keys.getKey());
+				double[] p = interpolate(keys.getValue(), frame);
+				scene.lights.set(keys.getKey(), new Light(p[0], p[1], p[2],
+					light.color.getR(), light.color.getG(), light.color.getB(),
+					light.spec, light.shadow, light.width));
+			}
+		}
+
+		private static double[] interpolate(TreeMap<Integer, double[]> keys, int frame) {
+			Map.Entry<Integer, double[]> before = keys.floorEntry(frame);
+			Map.Entry<Integer, double[]> after = keys.ceilingEntry(frame);
+			if (before == null)
+				return after.getValue();
+			if (after == null || after.getKey().equals(before.getKey()))
+				return before.getValue();
+
+			double t = (frame - before.getKey()) / (double) (after.getKey() - before.getKey());
+			double[] from = before.getValue();
+			double[] to = after.getValue();
+			double[] values = new double[from.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = from[i] + (to[i] - from[i])*t;
+			}
+			return values;
+		}
+	}
+
+	private final Scene scene;
+	private final RenderSettings settings;
+	private final Path path;
+	private final boolean quiet;
+
+	/**
+	 * Frames move the camera and the lights of the given scene.
+	 */
+	AnimationRenderer(Scene scene, RenderSettings settings, Path path) {
+		this.scene = scene;
+		this.settings = settings;
+		this.path = path;
+		// a line per frame instead of the progress of every frame
+		quiet = settings.quiet;
+		settings.quiet = true;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 5) {
+			System.out.println("Usage: AnimationRenderer scene path output-pattern width height [samples] [threads]");
+			System.out.println("The output pattern numbers the frames as String.format does, e.g. frames/%04d.png");
+			return;
+		}
+		try {
+			Scene scene = RayTracer.parseScene(args[0]);
+			Path path = parsePath(args[1], scene);
+			int samples = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+			int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+			RenderSettings settings = new RenderSettings(Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+				scene.settings.maxRecursionLevel, threads, samples > 1, samples);
+
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			long start = System.currentTimeMillis();
+			try {
+				new AnimationRenderer(scene, settings, path).render(pool, args[2]);
+			} finally {
+				pool.shutdown();
+			}
+			System.out.println("Rendered " + path.getFrameCount() + " frames in "
+				+ (System.currentTimeMillis() - start) + " milliseconds.");
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	static Path parsePath(String fileName, Scene scene) throws IOException, RayTracerException {
+		Path path = new Path();
+		try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+			String line;
+			int lineNum = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNum++;
+				line = line.trim();
+				if (line.isEmpty() || line.charAt(0) == '#')
+					continue;
+
+				String[] params = line.split("\\s+");
+				String code = params[0].toLowerCase();
+				try {
+					int frame = Integer.parseInt(params[1]);
+					if (frame < 0)
+						throw new RayTracerException(fileName + ":" + lineNum + ": negative frame");
+					if (code.equals("cam") && params.length == 13) {
+						path.camera.put(frame, parseNumbers(params, 2, 11));
+					}
+					else if (code.equals("lgt") && params.length == 6) {
+						int light = Integer.parseInt(params[2]) - 1;
+						if (light < 0 || light >= scene.lights.size())
+							throw new RayTracerException(fileName + ":" + lineNum + ": no light " + params[2] + " in the scene");
+						path.lights.computeIfAbsent(light, l -> new TreeMap<>()).put(frame, parseNumbers(params, 3, 3));
+					}
+					else {
+						throw new RayTracerException(fileName + ":" + lineNum + ": expected a cam or lgt keyframe");
+					}
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					throw new RayTracerException(fileName + ":" + lineNum + ": bad number");
+				}
+			}
+		}
+		if (path.camera.isEmpty())
+			throw new RayTracerException(fileName + ": no camera keyframes");
+		return path;
+	}
+
+	private static double[] parseNumbers(String[] params, int from, int count) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = Double.parseDouble(params[from + i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Renders every frame of the path on the pool and saves frame n as
+	 * String.format(outputPattern, n).
+	 */
+	void render(ForkJoinPool pool, String outputPattern) throws IOException, InterruptedException {
+		ExecutorService encoder = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "animation-encoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Future<?> encoding = null;
+		Accelerator accelerator = null;
+		try {
+			for (int frame = 0; frame < path.getFrameCount(); frame++) {
+				long start = System.currentTimeMillis();
+				path.apply(scene, frame);
+				RayTracer tracer = new RayTracer(scene, settings);
+				tracer.accelerator = accelerator;
+				tracer.renderScene(pool);
+				accelerator = tracer.accelerator;
+
+				// at most one frame waits to be encoded
+				waitFor(encoding);
+				BufferedImage image = tracer.getImage();
+				File file = new File(String.format(outputPattern, frame));
+				encoding = encoder.submit(() -> {
+					if (!ImageIO.write(image, "png", file))
+						throw new IOException("no png writer");
+					return null;
+				});
+				if (!quiet)
+					System.out.println("Frame " + frame + " of " + path.getFrameCount() + " rendered in "
+						+ (System.currentTimeMillis() - start) + " milliseconds.");
+			}
+			waitFor(encoding);
+		} finally {
+			encoder.shutdown();
+		}
+	}
+
+	private static void waitFor(Future<?> encoding) throws IOException, InterruptedException {
+		if (encoding == null)
+			return;
+		try {
+			encoding.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+}
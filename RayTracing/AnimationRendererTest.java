@@ -0,0 +1,81 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class AnimationRendererTest {
+
+	private static final String SCENE =
+		"cam 0 2 -10 0 0 0 0 1 0 1.5 1.2\n" +
+		"set 0.1 0.2 0.3 2 2\n" +
+		"mtl 0.9 0.2 0.2 1 1 1 0.2 0.2 0.2 30 0\n" +
+		"sph 0 0 0 1 1\n" +
+		"pln 0 1 0 -1 1\n" +
+		"lgt 0 5 -5 1 1 1 1 0.8 1\n";
+
+	@Test
+	public void framesMatchSingleRenders() throws Exception {
+		File dir = Files.createTempDirectory("animation").toFile();
+		File sceneFile = write(dir, "scene.txt", SCENE);
+		File pathFile = write(dir, "path.txt",
+			"# a quarter turn around the sphere, the light follows\n" +
+			"cam 0 0 2 -10 0 0 0 0 1 0 1.5 1.2\n" +
+			"cam 2 10 2 0 0 0 0 0 1 0 1.5 1.2\n" +
+			"lgt 0 1 0 5 -5\n" +
+			"lgt 2 1 5 5 0\n");
+
+		Scene scene = RayTracer.parseScene(sceneFile);
+		AnimationRenderer.Path path = AnimationRenderer.parsePath(pathFile.getPath(), scene);
+		assertEquals(3, path.getFrameCount());
+		assertEquals(5, path.getCamera(1).position.x, 1e-12);
+		assertEquals(-5, path.getCamera(1).position.z, 1e-12);
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			RenderSettings settings = new RenderSettings(32, 24, 2, 2, false, 1);
+			settings.quiet = true;
+			new AnimationRenderer(scene, settings, path).render(pool, new File(dir, "frame%02d.png").getPath());
+		} finally {
+			pool.shutdown();
+		}
+
+		for (int frame = 0; frame < 3; frame++) {
+			Scene single = RayTracer.parseScene(sceneFile);
+			path.apply(single, frame);
+			RenderSettings settings = new RenderSettings(32, 24, 2, 1, false, 1);
+			settings.quiet = true;
+			RayTracer tracer = new RayTracer(single, settings);
+			tracer.renderScene();
+
+			BufferedImage image = ImageIO.read(new File(dir, String.format("frame%02d.png", frame)));
+			for (int y = 0; y < 24; y++) {
+				for (int x = 0; x < 32; x++) {
+					assertEquals("frame " + frame + " pixel " + x + "," + y,
+						tracer.getImage().getRGB(x, y), image.getRGB(x, y));
+				}
+			}
+		}
+	}
+
+	@Test(expected = RayTracer.RayTracerException.class)
+	public void keyframesOfMissingLightsAreRejected() throws Exception {
+		File dir = Files.createTempDirectory("animation").toFile();
+		Scene scene = RayTracer.parseScene(write(dir, "scene.txt", SCENE));
+		AnimationRenderer.parsePath(write(dir, "path.txt", "cam 0 0 2 -10 0 0 0 0 1 0 1.5 1.2\nlgt 0 2 0 5 -5\n").getPath(), scene);
+	}
+
+	private static File write(File dir, String name, String content) throws IOException {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+}
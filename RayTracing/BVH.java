@@ -0,0 +1,280 @@
+package RayTracing;
+
+/**
+ * Flattened bounding volume hierarchy over a set of axis aligned boxes,
+ * built with binned surface area heuristic splits.
+ *
+ * Nodes are laid out depth first: the left child of an inner node is the
+ * node right after it, the right child is stored in nodeStart. Leaves store
+ * the range of item indices they cover in order.
+ */
+class BVH {
+
+	static final int MAX_LEAF_SIZE = 4;
+	private static final int BINS = 12;
+
+	// 6 doubles per node: min x,y,z then max x,y,z
+	final double[] nodeBounds;
+	// leaf: index of the first item in order, inner node: index of the right child
+	final int[] nodeStart;
+	// leaf: number of items, inner node: 0
+	final int[] nodeCount;
+	final int[] order;
+	int nodes;
+	// deepest level of the tree, traversal stacks need depth+1 entries
+	int depth;
+
+	// only needed while building
+	private double[] itemBounds;
+	private double[] centroids;
+
+	/**
+	 * @param itemBounds 6 doubles per item, in the same layout as nodeBounds
+	 */
+	BVH(double[] itemBounds, int itemCount) {
+		this.itemBounds = itemBounds;
+		centroids = new double[itemCount*3];
+		order = new int[itemCount];
+		for (int i = 0; i < itemCount; i++) {
+			order[i] = i;
+			for (int axis = 0; axis < 3; axis++) {
+				centroids[i*3+axis] = (itemBounds[i*6+axis] + itemBounds[i*6+axis+3]) / 2;
+			}
+		}
+
+		int maxNodes = Math.max(1, 2*itemCount - 1);
+		nodeBounds = new double[maxNodes*6];
+		nodeStart = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+
+		if (itemCount == 0) {
+			// an empty tree is a single leaf without items
+			for (int axis = 0; axis < 3; axis++) {
+				nodeBounds[axis] = Double.POSITIVE_INFINITY;
+				nodeBounds[axis+3] = Double.NEGATIVE_INFINITY;
+			}
+			nodes = 1;
+		}
+		else {
+			build(0, itemCount, 0);
+		}
+		this.itemBounds = null;
+		centroids = null;
+	}
+
+	/**
+	 * A tree built before, from arrays trimmed to its nodes.
+	 */
+	BVH(double[] nodeBounds, int[] nodeStart, int[] nodeCount, int[] order, int depth) {
+		nodes = nodeStart.length;
+		if (nodes == 0 || nodeBounds.length != nodes*6 || nodeCount.length != nodes)
+			throw new IllegalArgumentException("inconsistent BVH");
+		this.nodeBounds = nodeBounds;
+		this.nodeStart = nodeStart;
+		this.nodeCount = nodeCount;
+		this.order = order;
+		this.depth = depth;
+	}
+
+	int size() {
+		return order.length;
+	}
+
+	int[] newStack() {
+		return new int[depth+2];
+	}
+
+	private int build(int start, int end, int level) {
+		int node = nodes++;
+		int count = end - start;
+		depth = Math.max(depth, level);
+
+		double[] bounds = nodeBounds;
+		int b = node*6;
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[b+axis] = Double.POSITIVE_INFINITY;
+			bounds[b+axis+3] = Double.NEGATIVE_INFINITY;
+		}
+		double[] centroidMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		double[] centroidMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for (int i = start; i < end; i++) {
+			int item = order[i];
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[b+axis]   = Math.min(bounds[b+axis],   itemBounds[item*6+axis]);
+				bounds[b+axis+3] = Math.max(bounds[b+axis+3], itemBounds[item*6+axis+3]);
+				centroidMin[axis] = Math.min(centroidMin[axis], centroids[item*3+axis]);
+				centroidMax[axis] = Math.max(centroidMax[axis], centroids[item*3+axis]);
+			}
+		}
+
+		if (count <= MAX_LEAF_SIZE) {
+			return makeLeaf(node, start, count);
+		}
+
+		int axis = 0;
+		for (int i = 1; i < 3; i++) {
+			if (centroidMax[i]-centroidMin[i] > centroidMax[axis]-centroidMin[axis])
+				axis = i;
+		}
+		double extent = centroidMax[axis] - centroidMin[axis];
+
+		int mid;
+		if (extent <= 0) {
+			// all centroids coincide, no plane can separate them
+			mid = start + count/2;
+		}
+		else {
+			mid = splitBySAH(start, end, axis, centroidMin[axis], extent);
+		}
+
+		build(start, mid, level+1);
+		nodeStart[node] = build(mid, end, level+1);
+		nodeCount[node] = 0;
+		return node;
+	}
+
+	private int makeLeaf(int node, int start, int count) {
+		nodeStart[node] = start;
+		nodeCount[node] = count;
+		return node;
+	}
+
+	private int splitBySAH(int start, int end, int axis, double min, double extent) {
+		int[] binCount = new int[BINS];
+		double[] binBounds = new double[BINS*6];
+		for (int i = 0; i < BINS; i++) {
+			emptyBounds(binBounds, i*6);
+		}
+
+		double scale = BINS / extent;
+		for (int i = start; i < end; i++) {
+			int item = order[i];
+			int bin = getBin(item, axis, min, scale);
+			binCount[bin]++;
+			growBounds(binBounds, bin*6, item);
+		}
+
+		// sweep from the right to get the cost of every right hand side
+		double[] rightArea = new double[BINS];
+		int[] rightCount = new int[BINS];
+		double[] acc = new double[6];
+		emptyBounds(acc, 0);
+		int accCount = 0;
+		for (int i = BINS-1; i > 0; i--) {
+			unionBounds(acc, binBounds, i*6);
+			accCount += binCount[i];
+			rightArea[i] = surfaceArea(acc, 0);
+			rightCount[i] = accCount;
+		}
+
+		double bestCost = Double.POSITIVE_INFINITY;
+		int bestSplit = -1;
+		emptyBounds(acc, 0);
+		accCount = 0;
+		for (int i = 0; i < BINS-1; i++) {
+			unionBounds(acc, binBounds, i*6);
+			accCount += binCount[i];
+			if (accCount == 0 || rightCount[i+1] == 0)
+				continue;
+			double cost = surfaceArea(acc, 0)*accCount + rightArea[i+1]*rightCount[i+1];
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestSplit = i;
+			}
+		}
+
+		if (bestSplit == -1) {
+			return start + (end-start)/2;
+		}
+
+		// partition order in place around the chosen bin boundary
+		int left = start;
+		int right = end - 1;
+		while (left <= right) {
+			if (getBin(order[left], axis, min, scale) <= bestSplit) {
+				left++;
+			}
+			else {
+				int tmp = order[left];
+				order[left] = order[right];
+				order[right] = tmp;
+				right--;
+			}
+		}
+		return left;
+	}
+
+	private int getBin(int item, int axis, double min, double scale) {
+		int bin = (int)((centroids[item*3+axis] - min) * scale);
+		return Math.min(BINS-1, Math.max(0, bin));
+	}
+
+	private void growBounds(double[] bounds, int b, int item) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[b+axis]   = Math.min(bounds[b+axis],   itemBounds[item*6+axis]);
+			bounds[b+axis+3] = Math.max(bounds[b+axis+3], itemBounds[item*6+axis+3]);
+		}
+	}
+
+	private static void unionBounds(double[] bounds, double[] other, int o) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[axis]   = Math.min(bounds[axis],   other[o+axis]);
+			bounds[axis+3] = Math.max(bounds[axis+3], other[o+axis+3]);
+		}
+	}
+
+	private static void emptyBounds(double[] bounds, int b) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[b+axis] = Double.POSITIVE_INFINITY;
+			bounds[b+axis+3] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	private static double surfaceArea(double[] bounds, int b) {
+		double dx = bounds[b+3] - bounds[b];
+		double dy = bounds[b+4] - bounds[b+1];
+		double dz = bounds[b+5] - bounds[b+2];
+		if (dx < 0 || dy < 0 || dz < 0)
+			return 0;
+		return 2 * (dx*dy + dy*dz + dz*dx);
+	}
+
+	/**
+	 * Inverse of a direction component for the slab test. Zero components are
+	 * nudged so that a ray lying on a slab plane does not produce 0*infinity.
+	 */
+	static double inverse(double d) {
+		return 1 / (d == 0 ? 1e-300 : d);
+	}
+
+	/**
+	 * Slab test of a ray against the bounds of a node.
+	 * Returns the distance at which the ray enters the node, or -1 if it misses
+	 * the node or only reaches it beyond maxDist.
+	 */
+	double getEntryDistance(int node,
+			double ox, double oy, double oz,
+			double invX, double invY, double invZ,
+			double maxDist) {
+		int b = node*6;
+
+		double tx1 = (nodeBounds[b]   - ox)*invX;
+		double tx2 = (nodeBounds[b+3] - ox)*invX;
+		double tmin = Math.min(tx1, tx2);
+		double tmax = Math.max(tx1, tx2);
+
+		double ty1 = (nodeBounds[b+1] - oy)*invY;
+		double ty2 = (nodeBounds[b+4] - oy)*invY;
+		tmin = Math.max(tmin, Math.min(ty1, ty2));
+		tmax = Math.min(tmax, Math.max(ty1, ty2));
+
+		double tz1 = (nodeBounds[b+2] - oz)*invZ;
+		double tz2 = (nodeBounds[b+5] - oz)*invZ;
+		tmin = Math.max(tmin, Math.min(tz1, tz2));
+		tmax = Math.min(tmax, Math.max(tz1, tz2));
+
+		if (!(tmax >= tmin) || tmax < 0 || tmin > maxDist)
+			return -1;
+		return Math.max(tmin, 0);
+	}
+}
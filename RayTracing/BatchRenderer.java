@@ -0,0 +1,254 @@
+package RayTracing;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import RayTracing.RayTracer.RayTracerException;
+
+/**
+ * Renders the jobs of a manifest headless, in one JVM, on one shared
+ * ForkJoinPool. A few jobs run at once, so while one job parses its scene and
+ * builds its BVH, or waits for its last tiles, the tiles of the others keep
+ * the pool busy. A job that fails or runs out of time is reported and the
+ * others carry on, unless it ran out of memory, which stops the batch.
+ *
+ * The manifest has one job per line:
+ *	scene output width height [option=value ...]
+ * with the options samples (anti-aliasing samples, 1 for none), recursion,
+ * sampler, seed, tile, adaptive (true/false), weight, roulette (true/false),
+ * limit (seconds, 0 for none) and governed (true/false, lower the quality to
+ * finish within the limit, see RenderJob). Empty lines and lines starting
+ * with # are ignored.
+ */
+public class BatchRenderer {
+
+	static final String OK        = "ok";
+	static final String FAILED    = "failed";
+	static final String TIMED_OUT = "timed out";
+
+	private static final Set<String> OPTIONS = Set.of("samples", "recursion", "sampler", "seed", "tile",
+		"adaptive", "weight", "roulette", "limit", "governed");
+
+	static class Job {
+		final int line;
+		final String scene, output;
+		final int width, height;
+		final Map<String, String> options;
+
+		String status;
+		String message = "";
+		long millis;
+
+		Job(int line, String scene, String output, int width, int height, Map<String, String> options) {
+			this.line = line;
+			this.scene = scene;
+			this.output = output;
+			this.width = width;
+			this.height = height;
+			this.options = options;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + status + "] " + output + " (" + scene + ", line " + line + ") in " + millis + " ms"
+				+ (message.isEmpty() ? "" : ": " + message);
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final ExecutorService jobRunners;
+	private final int defaultLimit;
+
+	/**
+	 * @param threads threads rendering tiles
+	 * @param concurrentJobs jobs whose tiles may interleave
+	 * @param defaultLimit time limit in seconds of jobs without a limit option, 0 for none
+	 */
+	BatchRenderer(int threads, int concurrentJobs, int defaultLimit) {
+		pool = new ForkJoinPool(threads);
+		jobRunners = Executors.newFixedThreadPool(concurrentJobs);
+		this.defaultLimit = defaultLimit;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: BatchRenderer manifest [threads] [concurrent jobs] [default limit in seconds]");
+			return;
+		}
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int concurrentJobs = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		int limit = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		List<Job> jobs;
+		try {
+			jobs = parseManifest(args[0]);
+		} catch (IOException | RayTracerException e) {
+			System.out.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+
+		BatchRenderer renderer = new BatchRenderer(threads, concurrentJobs, limit);
+		long start = System.currentTimeMillis();
+		try {
+			renderer.run(jobs);
+		} finally {
+			renderer.shutdown();
+		}
+
+		int failed = 0;
+		for (Job job : jobs) {
+			if (!job.status.equals(OK))
+				failed++;
+		}
+		System.out.println("Rendered " + (jobs.size() - failed) + " of " + jobs.size() + " jobs in "
+			+ (System.currentTimeMillis() - start) + " milliseconds.");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	static List<Job> parseManifest(String fileName) throws IOException, RayTracerException {
+		List<Job> jobs = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+			String line;
+			int lineNum = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNum++;
+				line = line.trim();
+				if (line.isEmpty() || line.charAt(0) == '#')
+					continue;
+
+				String[] params = line.split("\\s+");
+				if (params.length < 4)
+					throw new RayTracerException(fileName + ":" + lineNum + ": expected scene, output, width and height");
+				Map<String, String> options = new HashMap<>();
+				for (int i = 4; i < params.length; i++) {
+					int equals = params[i].indexOf('=');
+					if (equals <= 0)
+						throw new RayTracerException(fileName + ":" + lineNum + ": expected option=value, got " + params[i]);
+					String option = params[i].substring(0, equals);
+					if (!OPTIONS.contains(option))
+						throw new RayTracerException(fileName + ":" + lineNum + ": unknown option " + option);
+					options.put(option, params[i].substring(equals + 1));
+				}
+				try {
+					jobs.add(new Job(lineNum, params[0], params[1],
+						Integer.parseInt(params[2]), Integer.parseInt(params[3]), options));
+				} catch (NumberFormatException e) {
+					throw new RayTracerException(fileName + ":" + lineNum + ": bad image size");
+				}
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Renders all jobs and sets their status, printing each as it finishes.
+	 */
+	void run(List<Job> jobs) {
+		List<Future<?>> futures = new ArrayList<>();
+		for (Job job : jobs) {
+			futures.add(jobRunners.submit(() -> {
+				render(job);
+				System.out.println(job);
+			}));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// render catches everything a job can throw but errors such as
+				// OutOfMemoryError, after which the other jobs aren't started
+				if (e.getCause() instanceof Error) {
+					for (Future<?> other : futures)
+						other.cancel(true);
+					throw (Error) e.getCause();
+				}
+			}
+		}
+	}
+
+	private void render(Job job) {
+		long start = System.currentTimeMillis();
+		try {
+			Scene scene = RayTracer.parseScene(job.scene);
+			RenderSettings settings = createSettings(job, scene);
+			RayTracer tracer = new RayTracer(scene, settings);
+
+			int limit = Integer.parseInt(job.options.getOrDefault("limit", Integer.toString(defaultLimit)));
+			boolean governed = Boolean.parseBoolean(job.options.getOrDefault("governed", "false"));
+			RenderJob render = new RenderJob(tracer, limit*1000L, governed);
+			render.run(pool);
+			BufferedImage image = render.get();
+			if (render.isTimedOut()) {
+				job.status = TIMED_OUT;
+				job.message = render.toString();
+			}
+			else {
+				File output = new File(job.output);
+				if (!ImageIO.write(image, "png", output))
+					throw new IOException("no png writer");
+				job.status = OK;
+				if (governed)
+					job.message = render.toString();
+			}
+		} catch (ExecutionException e) {
+			// a scene too deep fails its job, other errors the batch
+			if (e.getCause() instanceof Error && !(e.getCause() instanceof StackOverflowError))
+				throw (Error) e.getCause();
+			job.status = FAILED;
+			job.message = e.getCause().toString();
+		} catch (Exception | StackOverflowError e) {
+			job.status = FAILED;
+			job.message = e.toString();
+		} finally {
+			job.millis = System.currentTimeMillis() - start;
+		}
+	}
+
+	private RenderSettings createSettings(Job job, Scene scene) {
+		Map<String, String> options = job.options;
+		int samples = Integer.parseInt(options.getOrDefault("samples", "1"));
+		int recursion = options.containsKey("recursion")
+			? Integer.parseInt(options.get("recursion")) : scene.settings.maxRecursionLevel;
+
+		RenderSettings settings = new RenderSettings(job.width, job.height, recursion,
+			pool.getParallelism(), samples > 1, samples);
+		settings.quiet = true;
+		if (options.containsKey("sampler"))
+			settings.sampler = options.get("sampler");
+		if (options.containsKey("seed"))
+			settings.seed = Long.parseLong(options.get("seed"));
+		if (options.containsKey("tile"))
+			settings.tileSize = Integer.parseInt(options.get("tile"));
+		if (options.containsKey("adaptive"))
+			settings.adaptive = Boolean.parseBoolean(options.get("adaptive"));
+		if (options.containsKey("weight"))
+			settings.minRayWeight = Double.parseDouble(options.get("weight"));
+		if (options.containsKey("roulette"))
+			settings.russianRoulette = Boolean.parseBoolean(options.get("roulette"));
+		return settings;
+	}
+
+	void shutdown() {
+		jobRunners.shutdown();
+		pool.shutdown();
+	}
+}
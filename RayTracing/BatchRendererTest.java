@@ -0,0 +1,77 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchRendererTest {
+
+	private static final String SCENE =
+		"cam 0 2 -10 0 0 0 0 1 0 1.5 1.2\n" +
+		"set 0.1 0.2 0.3 3 2\n" +
+		"mtl 0.9 0.2 0.2 1 1 1 0.2 0.2 0.2 30 0\n" +
+		"sph 0 0 0 1 1\n" +
+		"pln 0 1 0 -1 1\n" +
+		"lgt 0 5 -5 1 1 1 1 0.8 1\n";
+
+	@Test
+	public void failedAndTimedOutJobsDontStopTheOthers() throws Exception {
+		File dir = Files.createTempDirectory("batch").toFile();
+		File scene = write(dir, "scene.txt", SCENE);
+		File manifest = write(dir, "manifest.txt",
+			"# scene output width height options\n" +
+			scene + " " + new File(dir, "a.png") + " 40 30\n" +
+			new File(dir, "missing.txt") + " " + new File(dir, "b.png") + " 40 30\n" +
+			scene + " " + new File(dir, "c.png") + " 4000 4000 samples=64 limit=1\n" +
+			scene + " " + new File(dir, "d.png") + " 30 40 samples=4 sampler=halton\n");
+
+		List<BatchRenderer.Job> jobs = BatchRenderer.parseManifest(manifest.getPath());
+		assertEquals(4, jobs.size());
+		assertEquals(2, jobs.get(0).line);
+
+		BatchRenderer renderer = new BatchRenderer(2, 2, 0);
+		try {
+			renderer.run(jobs);
+		} finally {
+			renderer.shutdown();
+		}
+
+		assertEquals(BatchRenderer.OK, jobs.get(0).status);
+		assertEquals(BatchRenderer.FAILED, jobs.get(1).status);
+		assertEquals(BatchRenderer.TIMED_OUT, jobs.get(2).status);
+		assertEquals(BatchRenderer.OK, jobs.get(3).status);
+		assertTrue(new File(dir, "a.png").isFile());
+		assertFalse(new File(dir, "c.png").exists());
+		assertTrue(new File(dir, "d.png").isFile());
+	}
+
+	@Test(expected = RayTracer.RayTracerException.class)
+	public void malformedManifestLinesAreRejected() throws Exception {
+		File dir = Files.createTempDirectory("batch").toFile();
+		File manifest = write(dir, "manifest.txt", "scene.txt out.png 40 30 samples\n");
+		BatchRenderer.parseManifest(manifest.getPath());
+	}
+
+	@Test
+	public void unknownOptionsAreRejected() throws Exception {
+		File dir = Files.createTempDirectory("batch").toFile();
+		File manifest = write(dir, "manifest.txt", "\nscene.txt out.png 40 30 sample=16\n");
+		try {
+			BatchRenderer.parseManifest(manifest.getPath());
+			fail();
+		} catch (RayTracer.RayTracerException e) {
+			assertEquals(manifest.getPath() + ":2: unknown option sample", e.getMessage());
+		}
+	}
+
+	private static File write(File dir, String name, String content) throws IOException {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+}
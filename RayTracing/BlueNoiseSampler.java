@@ -0,0 +1,122 @@
+package RayTracing;
+
+import java.util.SplittableRandom;
+
+/**
+ * Values read from a tiled blue noise texture, so the error of neighbouring
+ * pixels is uncorrelated and shows up as fine grain rather than blotches.
+ * Every dimension reads the texture at its own offset, and successive samples
+ * of a pixel step along the golden ratio sequence from there.
+ *
+ * The 64x64 texture is built once with the void and cluster method.
+ */
+class BlueNoiseSampler extends Sampler {
+
+	private static final int SIZE = 64;
+	private static final int MASK = SIZE - 1;
+	private static final double SIGMA = 1.9;
+	private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+	private static final float[] TEXTURE = createTexture(0x5eed);
+
+	BlueNoiseSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	double get(int dimension) {
+		long offset = mix(seed + dimension);
+		int u = (x + (int) offset) & MASK;
+		int v = (y + (int) (offset >>> 32)) & MASK;
+		return wrap(TEXTURE[u + v*SIZE] + index*GOLDEN_RATIO_FRACTION);
+	}
+
+	/**
+	 * Ranks every texel by the order void and cluster would place it in and
+	 * returns the ranks scaled into (0, 1).
+	 */
+	static float[] createTexture(long seed) {
+		int n = SIZE*SIZE;
+		// gaussian weight of every toroidal offset
+		double[] kernel = new double[n];
+		for (int dy = 0; dy < SIZE; dy++) {
+			for (int dx = 0; dx < SIZE; dx++) {
+				int wx = Math.min(dx, SIZE - dx);
+				int wy = Math.min(dy, SIZE - dy);
+				kernel[dx + dy*SIZE] = Math.exp(-(wx*wx + wy*wy) / (2*SIGMA*SIGMA));
+			}
+		}
+
+		// random initial pattern covering a tenth of the texels
+		boolean[] on = new boolean[n];
+		double[] energy = new double[n];
+		SplittableRandom random = new SplittableRandom(seed);
+		int ones = n / 10;
+		for (int placed = 0; placed < ones; ) {
+			int p = random.nextInt(n);
+			if (!on[p]) {
+				toggle(on, energy, kernel, p);
+				placed++;
+			}
+		}
+
+		// move points from the tightest cluster to the largest void until stable
+		for (int i = 0; i < n; i++) {
+			int cluster = find(on, energy, true);
+			toggle(on, energy, kernel, cluster);
+			int largestVoid = find(on, energy, false);
+			toggle(on, energy, kernel, largestVoid);
+			if (largestVoid == cluster)
+				break;
+		}
+
+		int[] rank = new int[n];
+		boolean[] initial = on.clone();
+		double[] initialEnergy = energy.clone();
+		// the initial points are ranked by removing the tightest clusters
+		for (int r = ones - 1; r >= 0; r--) {
+			int cluster = find(on, energy, true);
+			toggle(on, energy, kernel, cluster);
+			rank[cluster] = r;
+		}
+		// the rest by filling the largest voids
+		on = initial;
+		energy = initialEnergy;
+		for (int r = ones; r < n; r++) {
+			int largestVoid = find(on, energy, false);
+			toggle(on, energy, kernel, largestVoid);
+			rank[largestVoid] = r;
+		}
+
+		float[] texture = new float[n];
+		for (int i = 0; i < n; i++) {
+			texture[i] = (rank[i] + 0.5f) / n;
+		}
+		return texture;
+	}
+
+	private static void toggle(boolean[] on, double[] energy, double[] kernel, int p) {
+		on[p] = !on[p];
+		double sign = on[p] ? 1 : -1;
+		int px = p & MASK;
+		int py = p / SIZE;
+		for (int qy = 0; qy < SIZE; qy++) {
+			int row = ((qy - py) & MASK) * SIZE;
+			for (int qx = 0; qx < SIZE; qx++) {
+				energy[qx + qy*SIZE] += sign*kernel[((qx - px) & MASK) + row];
+			}
+		}
+	}
+
+	// highest energy texel that is on (tightest cluster) or lowest that is off (largest void)
+	private static int find(boolean[] on, double[] energy, boolean cluster) {
+		int best = -1;
+		for (int i = 0; i < on.length; i++) {
+			if (on[i] != cluster)
+				continue;
+			if (best < 0 || (cluster ? energy[i] > energy[best] : energy[i] < energy[best]))
+				best = i;
+		}
+		return best;
+	}
+}
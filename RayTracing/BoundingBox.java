@@ -0,0 +1,56 @@
+package RayTracing;
+
+public class BoundingBox {
+	static final BoundingBox INFINITE = new BoundingBox(
+			Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+			Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+	final double minX, minY, minZ;
+	final double maxX, maxY, maxZ;
+
+	BoundingBox(double minX, double minY, double minZ,
+			double maxX, double maxY, double maxZ) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+
+	static BoundingBox ofPoints(Vector... points) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+
+		for (Vector point : points) {
+			minX = Math.min(minX, point.x);
+			minY = Math.min(minY, point.y);
+			minZ = Math.min(minZ, point.z);
+			maxX = Math.max(maxX, point.x);
+			maxY = Math.max(maxY, point.y);
+			maxZ = Math.max(maxZ, point.z);
+		}
+
+		return new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	boolean isInfinite() {
+		return Double.isInfinite(minX) || Double.isInfinite(minY) || Double.isInfinite(minZ)
+			|| Double.isInfinite(maxX) || Double.isInfinite(maxY) || Double.isInfinite(maxZ);
+	}
+
+	BoundingBox union(BoundingBox other) {
+		return new BoundingBox(
+			Math.min(minX, other.minX), Math.min(minY, other.minY), Math.min(minZ, other.minZ),
+			Math.max(maxX, other.maxX), Math.max(maxY, other.maxY), Math.max(maxZ, other.maxZ));
+	}
+
+	Vector getCenter() {
+		return new Vector((minX+maxX)/2, (minY+maxY)/2, (minZ+maxZ)/2);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + minX + ", " + minY + ", " + minZ + "] - [" + maxX + ", " + maxY + ", " + maxZ + "]";
+	}
+}
@@ -2,9 +2,12 @@ package RayTracing;
 
 public class Box extends Shape3D {
 
-	private final double x0, y0, z0, x1, y1, z1;
-	private final Vector position;
-	private final Vector rotation;
+	final double x0, y0, z0, x1, y1, z1;
+	final Vector position;
+	final Vector size;
+	final Vector rotation;
+	// a rotated box is the axis aligned one rotated about its center
+	private final Instance rotated;
 
 	public Box(double px, double py, double pz,
 			double sx, double sy, double sz,
@@ -17,68 +20,138 @@ public class Box extends Shape3D {
 		y1 = py+sy/2;
 		z1 = pz+sz/2;
 		position = new Vector(px, py, pz);
+		size = new Vector(sx, sy, sz);
 		rotation = new Vector(rx, ry, rz);
+
+		if (rotation.equals(Vector.ZERO)) {
+			rotated = null;
+		}
+		else {
+			Transform transform = Transform.translation(-px, -py, -pz)
+				.then(Transform.rotation(rx, ry, rz))
+				.then(Transform.translation(px, py, pz));
+			rotated = new Instance(new Box(px, py, pz, sx, sy, sz, 0, 0, 0), transform);
+		}
 	}
 
 	@Override
-	double getHitDistance(Ray ray) {
-		if (!rotation.equals(Vector.ZERO)) {
-			Vector p0 = ray.p0.reverseRotation(rotation, position);
-			Vector dir = ray.dir.reverseRotation(rotation);
-			ray = new Ray(p0, dir);
+	double getHitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		if (rotated != null) {
+			return rotated.getHitDistance(ox, oy, oz, dx, dy, dz);
 		}
 
-		double inv1 = (1 / ray.dir.x);
-		double inv2 = (1 / ray.dir.y);
-		double inv3 = (1 / ray.dir.z);
+		double inv1 = (1 / dx);
+		double inv2 = (1 / dy);
+		double inv3 = (1 / dz);
 
 		double tmin = Double.NEGATIVE_INFINITY;
 		double tmax = Double.POSITIVE_INFINITY;
 
-        double tx1 = (x0 - ray.p0.x)*inv1;
-        double tx2 = (x1 - ray.p0.x)*inv1;
+        double tx1 = (x0 - ox)*inv1;
+        double tx2 = (x1 - ox)*inv1;
 
         tmin = Math.max(tmin, Math.min(tx1, tx2));
         tmax = Math.min(tmax, Math.max(tx1, tx2));
 
-        double ty1 = (y0 - ray.p0.y)*inv2;
-        double ty2 = (y1 - ray.p0.y)*inv2;
+        double ty1 = (y0 - oy)*inv2;
+        double ty2 = (y1 - oy)*inv2;
 
         tmin = Math.max(tmin, Math.min(ty1, ty2));
         tmax = Math.min(tmax, Math.max(ty1, ty2));
 
-        double tz1 = (z0 - ray.p0.z)*inv3;
-        double tz2 = (z1 - ray.p0.z)*inv3;
+        double tz1 = (z0 - oz)*inv3;
+        double tz2 = (z1 - oz)*inv3;
 
         tmin = Math.max(tmin, Math.min(tz1, tz2));
         tmax = Math.min(tmax, Math.max(tz1, tz2));
 
-	    if (tmax >= tmin)
-	    	return tmin;
-	    return -1;
+	    if (tmax < tmin || tmax < 0)
+	    	return -1;
+	    // the ray starts inside the box
+	    if (tmin < 0)
+	    	return tmax;
+	    return tmin;
 	}
 
 	@Override
 	Vector getNormalAtSurfacePoint(Vector point) {
-		if (!rotation.equals(Vector.ZERO)) {
-			point = point.reverseRotation(rotation, position);
+		if (rotated != null) {
+			return rotated.getNormalAtSurfacePoint(point);
+		}
+
+		Hit hit = new Hit();
+		hit.x = point.x;
+		hit.y = point.y;
+		hit.z = point.z;
+		setNormal(hit);
+		return hit.getNormal();
+	}
+
+	@Override
+	void setNormal(Hit hit) {
+		if (rotated != null) {
+			rotated.setNormal(hit);
+			return;
 		}
 
 		double EPSILON = RayTracer.EPSILON;
-		if (Math.abs(point.x-x0)<EPSILON)
-			return new Vector(-1, 0, 0).rotate(rotation);
-		if (Math.abs(point.x-x1)<EPSILON)
-			return new Vector(1, 0, 0).rotate(rotation);
-		if (Math.abs(point.y-y0)<EPSILON)
-			return new Vector(0, -1, 0).rotate(rotation);
-		if (Math.abs(point.y-y1)<EPSILON)
-			return new Vector(0, 1, 0).rotate(rotation);
-		if (Math.abs(point.z-z0)<EPSILON)
-			return new Vector(0, 0, -1).rotate(rotation);
-		if (Math.abs(point.z-z1)<EPSILON)
-			return new Vector(0, 0, 1).rotate(rotation);
-		System.out.println("Herp!");
-		return Vector.ZERO;
+		hit.nx = 0;
+		hit.ny = 0;
+		hit.nz = 0;
+		if (Math.abs(hit.x-x0)<EPSILON)
+			hit.nx = -1;
+		else if (Math.abs(hit.x-x1)<EPSILON)
+			hit.nx = 1;
+		else if (Math.abs(hit.y-y0)<EPSILON)
+			hit.ny = -1;
+		else if (Math.abs(hit.y-y1)<EPSILON)
+			hit.ny = 1;
+		else if (Math.abs(hit.z-z0)<EPSILON)
+			hit.nz = -1;
+		else if (Math.abs(hit.z-z1)<EPSILON)
+			hit.nz = 1;
+		else
+			setNearestFaceNormal(hit);
+	}
+
+	// for points moved into the box's space by a transform, which may be a
+	// little further from the face than EPSILON
+	private void setNearestFaceNormal(Hit hit) {
+		double nearest = Math.abs(hit.x-x0);
+		hit.nx = -1;
+		if (Math.abs(hit.x-x1) < nearest) {
+			nearest = Math.abs(hit.x-x1);
+			hit.nx = 1;
+		}
+		if (Math.abs(hit.y-y0) < nearest) {
+			nearest = Math.abs(hit.y-y0);
+			hit.nx = 0;
+			hit.ny = -1;
+		}
+		if (Math.abs(hit.y-y1) < nearest) {
+			nearest = Math.abs(hit.y-y1);
+			hit.nx = 0;
+			hit.ny = 1;
+		}
+		if (Math.abs(hit.z-z0) < nearest) {
+			nearest = Math.abs(hit.z-z0);
+			hit.nx = 0;
+			hit.ny = 0;
+			hit.nz = -1;
+		}
+		if (Math.abs(hit.z-z1) < nearest) {
+			hit.nx = 0;
+			hit.ny = 0;
+			hit.nz = 1;
+		}
+	}
+
+	@Override
+	BoundingBox getBounds() {
+		if (rotated != null) {
+			return rotated.getBounds();
+		}
+		return new BoundingBox(x0, y0, z0, x1, y1, z1);
 	}
 
 }
@@ -6,6 +6,10 @@ public class Camera {
 	final Vector up;
 	
 	final double screenWidth;
+	// the look-at point, up vector and screen distance the camera was defined with
+	final Vector lookAt;
+	final Vector upDirection;
+	final double screenDistance;
 	
 	private int imageHeight;
 	private int imageWidth;
@@ -22,9 +26,11 @@ public class Camera {
 
 		this.position = new Vector(px, py, pz);
 		this.screenWidth = screenWidth;
+		this.lookAt = new Vector(lx, ly, lz);
+		this.upDirection = new Vector(ux, uy, uz);
+		this.screenDistance = screenDistance;
 
 		//constructing up vector && walkingDistance
-		Vector lookAt = new Vector(lx, ly, lz);
 		screenNormal = lookAt.subtract(position).normalize();
 		walkingDistance = screenNormal.toLength(screenDistance);
 		Vector screenCenter = position.add(screenNormal.toLength(screenDistance));
@@ -51,4 +57,82 @@ public class Camera {
 
 		return new Ray(position, vectOfPixel);
 	}
+
+	/**
+	 * Same as getRayByPixelCoordinate(x, y) but writes the origin and the unit
+	 * direction of the ray into ray[0..6) instead of allocating a Ray.
+	 */
+	public void getRayByPixelCoordinate(double x, double y, double[] ray) {
+		double alpha = (2*x - imageWidth) / (double) imageWidth;
+		double beta = (2*y - imageHeight) / (double) imageHeight;
+
+		double dx = walkingDistance.x + xAxis.x*alpha + yAxis.x*beta;
+		double dy = walkingDistance.y + xAxis.y*alpha + yAxis.y*beta;
+		double dz = walkingDistance.z + xAxis.z*alpha + yAxis.z*beta;
+		double norm = Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+		ray[0] = position.x;
+		ray[1] = position.y;
+		ray[2] = position.z;
+		ray[3] = dx / norm;
+		ray[4] = dy / norm;
+		ray[5] = dz / norm;
+	}
+
+	/**
+	 * Writes the pixel coordinates the point (px, py, pz) shows at into
+	 * pixel, the inverse of getRayByPixelCoordinate. Returns false, leaving
+	 * pixel as it is, for points not in front of the camera.
+	 */
+	boolean getPixelCoordinate(double px, double py, double pz, double[] pixel) {
+		double vx = px - position.x, vy = py - position.y, vz = pz - position.z;
+		double depth = vx*screenNormal.x + vy*screenNormal.y + vz*screenNormal.z;
+		if (depth <= 0)
+			return false;
+		// the point, scaled onto the screen, in units of the screen axes
+		double scale = screenDistance / depth;
+		double alpha = (vx*xAxis.x + vy*xAxis.y + vz*xAxis.z)*scale / xAxis.dot(xAxis);
+		double beta  = (vx*yAxis.x + vy*yAxis.y + vz*yAxis.z)*scale / yAxis.dot(yAxis);
+		pixel[0] = (alpha + 1)*imageWidth / 2;
+		pixel[1] = (beta + 1)*imageHeight / 2;
+		return true;
+	}
+
+	/**
+	 * Fills the packet with the rays through the corners of the columns x rows
+	 * pixels from (x, y) on. The directions are stepped from the one of (x, y)
+	 * by the per pixel deltas of the screen axes.
+	 */
+	void getPacketRays(int x, int y, int columns, int rows, RayPacket packet) {
+		double alpha = (2*x - imageWidth) / (double) imageWidth;
+		double beta = (2*y - imageHeight) / (double) imageHeight;
+		double baseX = walkingDistance.x + xAxis.x*alpha + yAxis.x*beta;
+		double baseY = walkingDistance.y + xAxis.y*alpha + yAxis.y*beta;
+		double baseZ = walkingDistance.z + xAxis.z*alpha + yAxis.z*beta;
+
+		double columnX = xAxis.x*2 / imageWidth;
+		double columnY = xAxis.y*2 / imageWidth;
+		double columnZ = xAxis.z*2 / imageWidth;
+		double rowX = yAxis.x*2 / imageHeight;
+		double rowY = yAxis.y*2 / imageHeight;
+		double rowZ = yAxis.z*2 / imageHeight;
+
+		packet.size = columns*rows;
+		for (int j = 0; j < rows; j++) {
+			for (int i = 0; i < columns; i++) {
+				double dx = baseX + columnX*i + rowX*j;
+				double dy = baseY + columnY*i + rowY*j;
+				double dz = baseZ + columnZ*i + rowZ*j;
+				double norm = Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+				int r = i + j*columns;
+				packet.ox[r] = position.x;
+				packet.oy[r] = position.y;
+				packet.oz[r] = position.z;
+				packet.dx[r] = dx / norm;
+				packet.dy[r] = dy / norm;
+				packet.dz[r] = dz / norm;
+			}
+		}
+	}
 }
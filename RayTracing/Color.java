@@ -40,7 +40,11 @@ public class Color {
 	}
 	
 	int getRGB(){
-		return (int)(rgb.x*255)<<16 | (int)(rgb.y*255)<<8 | (int)(rgb.z*255);
+		return toRGB(rgb.x, rgb.y, rgb.z);
+	}
+
+	static int toRGB(double r, double g, double b){
+		return (int)(Math.min(1, r)*255)<<16 | (int)(Math.min(1, g)*255)<<8 | (int)(Math.min(1, b)*255);
 	}
 	
 	@Override
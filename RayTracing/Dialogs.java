@@ -10,6 +10,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 
 public class Dialogs {
 		
@@ -36,21 +37,48 @@ public class Dialogs {
 		panel.add(threadsPanel);
 		JCheckBox antiAliasing = new JCheckBox("anti-aliasing",defaultSettings.antiAliasing);
 		panel.add(antiAliasing);
+		JCheckBox progressive = new JCheckBox("progressive (one pass per sample)",defaultSettings.progressive);
+		panel.add(progressive);
+		JCheckBox adaptive = new JCheckBox("adaptive sampling (samples as maximum)",defaultSettings.adaptive);
+		panel.add(adaptive);
 		JPanel multiplierPanel = new JPanel();
 		multiplierPanel.add(new JLabel("number of samples"));
 		JTextField samples = new JTextField(Integer.toString(defaultSettings.numOfSamples));
 		multiplierPanel.add(samples);
 		panel.add(multiplierPanel);
+		JPanel tilePanel = new JPanel();
+		tilePanel.add(new JLabel("tile size"));
+		JTextField tileSize = new JTextField(Integer.toString(defaultSettings.tileSize));
+		tilePanel.add(tileSize);
+		panel.add(tilePanel);
+		JPanel samplerPanel = new JPanel();
+		samplerPanel.add(new JLabel("sampler"));
+		JComboBox<String> sampler = new JComboBox<String>(Sampler.NAMES);
+		sampler.setSelectedItem(defaultSettings.sampler);
+		samplerPanel.add(sampler);
+		panel.add(samplerPanel);
 		int option = JOptionPane.showConfirmDialog(parent, panel, "Render Settings", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
 		if (option == JOptionPane.OK_OPTION){
 			try{
-				return new RenderSettings(
+				RenderSettings settings = new RenderSettings(
 					Integer.parseInt(width.getText()), 
 					Integer.parseInt(height.getText()),
 					Integer.parseInt(recursion.getText()),
 					Integer.parseInt(threads.getText()), 
 					antiAliasing.isSelected(),
 					Integer.parseInt(samples.getText()));
+				settings.tileSize = Integer.parseInt(tileSize.getText());
+				settings.progressive = progressive.isSelected();
+				settings.convergenceThreshold = defaultSettings.convergenceThreshold;
+				settings.adaptive = adaptive.isSelected();
+				settings.minSamples = defaultSettings.minSamples;
+				settings.adaptiveThreshold = defaultSettings.adaptiveThreshold;
+				settings.minRayWeight = defaultSettings.minRayWeight;
+				settings.russianRoulette = defaultSettings.russianRoulette;
+				settings.sampler = (String) sampler.getSelectedItem();
+				settings.seed = defaultSettings.seed;
+				settings.incremental = defaultSettings.incremental;
+				return settings;
 				}
 			catch(Exception e){}
 		}
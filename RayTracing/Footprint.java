@@ -0,0 +1,118 @@
+package RayTracing;
+
+import java.util.BitSet;
+
+/**
+ * What the rays of every pixel of a render touched, to tell which pixels an
+ * edit of the scene can change.
+ *
+ * A new primitive can only change a pixel if it cuts one of the pixel's rays.
+ * Its primary rays it can only cut where it shows on the screen, inside the
+ * projection of its bounds. The other segments, secondary rays between hits
+ * and shadow rays from the hits to the points on the lights, lie in the
+ * bounding box of the hits and the light points, which the pixel keeps; a
+ * primitive that misses the box misses them. Secondary rays that hit nothing
+ * are unbounded, the pixel keeps a flag for them instead. And a pixel that
+ * shows the background, seen by an escaped ray or past the recursion limit,
+ * is all a change of the background colour changes.
+ */
+class Footprint {
+
+	static final int BACKGROUND = 1, SECONDARY_ESCAPED = 2;
+
+	final int width, height;
+	// minX, minY, minZ, maxX, maxY, maxZ per pixel, rounded outwards
+	private final float[] bounds;
+	private final byte[] flags;
+
+	Footprint(int width, int height) {
+		this.width = width;
+		this.height = height;
+		bounds = new float[width*height*6];
+		flags = new byte[width*height];
+	}
+
+	void set(int x, int y, double minX, double minY, double minZ,
+			double maxX, double maxY, double maxZ, int flags) {
+		int i = (x + y*width)*6;
+		bounds[i]   = roundDown(minX);
+		bounds[i+1] = roundDown(minY);
+		bounds[i+2] = roundDown(minZ);
+		bounds[i+3] = roundUp(maxX);
+		bounds[i+4] = roundUp(maxY);
+		bounds[i+5] = roundUp(maxZ);
+		this.flags[x + y*width] = (byte) flags;
+	}
+
+	// with a margin for the offset of ray origins off their surface. Pixels
+	// without hits have an empty box, from infinity to -infinity
+	private static float roundDown(double value) {
+		if (Double.isInfinite(value))
+			return (float) value;
+		value -= 1e-6*Math.max(1, Math.abs(value));
+		float rounded = (float) value;
+		return rounded > value ? Math.nextDown(rounded) : rounded;
+	}
+
+	private static float roundUp(double value) {
+		if (Double.isInfinite(value))
+			return (float) value;
+		value += 1e-6*Math.max(1, Math.abs(value));
+		float rounded = (float) value;
+		return rounded < value ? Math.nextUp(rounded) : rounded;
+	}
+
+	/**
+	 * Adds the pixels showing the background to stale.
+	 */
+	void addBackgroundPixels(BitSet stale) {
+		for (int p = 0; p < flags.length; p++) {
+			if ((flags[p] & BACKGROUND) != 0)
+				stale.set(p);
+		}
+	}
+
+	/**
+	 * Adds the pixels a new shape can change, seen through the camera the
+	 * footprint was rendered with, to stale.
+	 */
+	void addPixelsReaching(Shape3D shape, Camera camera, BitSet stale) {
+		BoundingBox box = shape.getBounds();
+		// the pixels the shape can show in, all of them for shapes behind or
+		// around the camera
+		double minPixelX = Double.NEGATIVE_INFINITY, minPixelY = Double.NEGATIVE_INFINITY;
+		double maxPixelX = Double.POSITIVE_INFINITY, maxPixelY = Double.POSITIVE_INFINITY;
+		if (!box.isInfinite()) {
+			double[] pixel = new double[2];
+			boolean inFront = true;
+			minPixelX = minPixelY = Double.POSITIVE_INFINITY;
+			maxPixelX = maxPixelY = Double.NEGATIVE_INFINITY;
+			for (int corner = 0; corner < 8 && inFront; corner++) {
+				inFront = camera.getPixelCoordinate((corner & 1) == 0 ? box.minX : box.maxX,
+					(corner & 2) == 0 ? box.minY : box.maxY, (corner & 4) == 0 ? box.minZ : box.maxZ, pixel);
+				minPixelX = Math.min(minPixelX, pixel[0] - 1);
+				minPixelY = Math.min(minPixelY, pixel[1] - 1);
+				maxPixelX = Math.max(maxPixelX, pixel[0] + 1);
+				maxPixelY = Math.max(maxPixelY, pixel[1] + 1);
+			}
+			if (!inFront) {
+				minPixelX = minPixelY = Double.NEGATIVE_INFINITY;
+				maxPixelX = maxPixelY = Double.POSITIVE_INFINITY;
+			}
+		}
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int p = x + y*width;
+				int i = p*6;
+				if (x >= minPixelX && x <= maxPixelX && y >= minPixelY && y <= maxPixelY
+						|| (flags[p] & SECONDARY_ESCAPED) != 0
+						|| bounds[i] <= box.maxX && bounds[i+3] >= box.minX
+							&& bounds[i+1] <= box.maxY && bounds[i+4] >= box.minY
+							&& bounds[i+2] <= box.maxZ && bounds[i+5] >= box.minZ
+							&& shape.mayCross(bounds[i], bounds[i+1], bounds[i+2], bounds[i+3], bounds[i+4], bounds[i+5]))
+					stale.set(p);
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package RayTracing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Pixels of the rendered image. Writes go straight into the int array behind
+ * a TYPE_INT_RGB BufferedImage, skipping the colour model and raster checks
+ * of setRGB. The image shares that array, so the GUI and saveImage see the
+ * pixels without a copy.
+ *
+ * Workers write disjoint tiles and need no locking. A reader drawing the image
+ * during a render may see a partly written tile.
+ */
+class FrameBuffer {
+	final int width, height;
+	private final BufferedImage image;
+	private final int[] pixels;
+
+	FrameBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	void setPixel(int x, int y, int rgb) {
+		pixels[x + y*width] = rgb;
+	}
+
+	/**
+	 * Copies length pixels from rgb, starting at offset, into row y from x on.
+	 */
+	void setRow(int x, int y, int[] rgb, int offset, int length) {
+		System.arraycopy(rgb, offset, pixels, x + y*width, length);
+	}
+
+	int getPixel(int x, int y) {
+		return pixels[x + y*width];
+	}
+
+	BufferedImage getImage() {
+		return image;
+	}
+}
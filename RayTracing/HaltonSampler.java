@@ -0,0 +1,43 @@
+package RayTracing;
+
+/**
+ * Halton sequence over the samples of a pixel, with dimension d using the
+ * radical inverse in the d-th prime base. Every pixel shifts the sequence by
+ * its own random offset (Cranley-Patterson rotation) so neighbouring pixels
+ * don't share a pattern. Dimensions past the last prime fall back to uniform
+ * values, they are the higher light grid cells where the grid itself already
+ * stratifies.
+ */
+class HaltonSampler extends Sampler {
+
+	private static final int[] PRIMES = {
+		2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53,
+		59, 61, 67, 71, 73, 79, 83, 89, 97, 101, 103, 107, 109, 113, 127, 131
+	};
+
+	HaltonSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	double get(int dimension) {
+		if (dimension >= PRIMES.length)
+			return random(dimension);
+		return wrap(radicalInverse(PRIMES[dimension], index) + pixelRandom(dimension));
+	}
+
+	/**
+	 * The digits of i in the base, mirrored around the radix point.
+	 */
+	static double radicalInverse(int base, int i) {
+		double inverseBase = 1.0 / base;
+		double factor = inverseBase;
+		double result = 0;
+		while (i > 0) {
+			result += (i % base) * factor;
+			i /= base;
+			factor *= inverseBase;
+		}
+		return result;
+	}
+}
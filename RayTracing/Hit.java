@@ -1,17 +1,51 @@
 package RayTracing;
 
-public class Hit implements Comparable<Hit>{
-	final double dist;
-	final Primitive primitive;
-	final Vector normal;
-	final Vector intersection;
+/**
+ * Closest intersection of a ray with the scene. Workers keep one Hit per
+ * recursion level and overwrite it for every ray, so it is mutable.
+ */
+public class Hit {
+	Primitive primitive;
+	double dist;
+	// intersection point
+	double x, y, z;
+	// unit normal at the intersection point
+	double nx, ny, nz;
+	// triangle of a mesh that was hit, -1 for other shapes
+	int triangle = -1;
+
+	Hit() {
+	}
 
 	Hit(Primitive primitive, double dist, Ray ray) {
-		this.dist = dist;
+		set(primitive, dist, ray.p0.x, ray.p0.y, ray.p0.z, ray.dir.x, ray.dir.y, ray.dir.z);
+	}
+
+	void set(Primitive primitive, double dist,
+			double ox, double oy, double oz, double dx, double dy, double dz) {
 		this.primitive = primitive;
+		this.dist = dist;
+
+		x = ox + dx*dist;
+		y = oy + dy*dist;
+		z = oz + dz*dist;
 
-		intersection = ray.getPointAlongRay(dist);
-		normal = primitive.shape.getNormalAtSurfacePoint(intersection);
+		triangle = -1;
+		primitive.shape.setNormal(this, ox, oy, oz, dx, dy, dz);
+		double norm = Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if (norm > 0) {
+			nx /= norm;
+			ny /= norm;
+			nz /= norm;
+		}
+	}
+
+	Vector getIntersection() {
+		return new Vector(x, y, z);
+	}
+
+	Vector getNormal() {
+		return new Vector(nx, ny, nz);
 	}
 
 	Color getDiffuseColor() {
@@ -34,9 +68,4 @@ public class Hit implements Comparable<Hit>{
 		return primitive.material.trans;
 	}
 
-	@Override
-	public int compareTo(Hit other) {
-		return Double.compare(dist, other.dist);
-	}
-
 }
@@ -0,0 +1,143 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class IncrementalRenderTest {
+
+	private static final int WIDTH = 80, HEIGHT = 60;
+
+	@Test
+	public void addedPrimitivesRetraceOnlyThePixelsTheyReach() {
+		Scene scene = scene();
+		RayTracer tracer = new RayTracer(scene, settings());
+		tracer.renderScene();
+		long fullRays = tracer.getMetrics().getPrimaryRays();
+		assertEquals(WIDTH*HEIGHT, fullRays);
+
+		// a small sphere off to the side, then a wall behind everything
+		Primitive sphere = new Primitive(new Sphere(2.5, 0, 1.5, 0.4), scene.materials.get(0));
+		scene.primitives.add(sphere);
+		tracer.primitiveAdded(sphere);
+		tracer.renderScene();
+		assertSame(render(scene), tracer.getImage());
+		long retraced = tracer.getMetrics().getPrimaryRays();
+		assertTrue(retraced + " of " + fullRays + " pixels", retraced*2 < fullRays);
+
+		Primitive wall = new Primitive(new Plane(0, 0, -1, -8), scene.materials.get(1));
+		scene.primitives.add(wall);
+		tracer.primitiveAdded(wall);
+		tracer.renderScene();
+		assertSame(render(scene), tracer.getImage());
+
+		// nothing changed, nothing traced
+		tracer.renderScene();
+		assertEquals(0, tracer.getMetrics().getPrimaryRays());
+	}
+
+	@Test
+	public void backgroundChangesRetraceThePixelsShowingIt() {
+		Scene scene = scene();
+		RayTracer tracer = new RayTracer(scene, settings());
+		tracer.renderScene();
+
+		scene.settings.background = new Color(0.9, 0.5, 0.1);
+		tracer.backgroundChanged();
+		tracer.renderScene();
+		assertSame(render(scene), tracer.getImage());
+		long retraced = tracer.getMetrics().getPrimaryRays();
+		assertTrue(retraced > 0 && retraced*2 < WIDTH*HEIGHT);
+	}
+
+	@Test
+	public void aNewCameraRetracesEverything() {
+		Scene scene = scene();
+		RayTracer tracer = new RayTracer(scene, settings());
+		tracer.renderScene();
+		scene.camera = new Camera(1, 3, -6, 0, 0, 0, 0, 1, 0, 1.5, 1.2);
+		tracer.renderScene();
+		assertEquals(WIDTH*HEIGHT, tracer.getMetrics().getPrimaryRays());
+		assertSame(render(scene), tracer.getImage());
+	}
+
+	@Test
+	public void editsDuringARenderRetraceEverythingNextTime() throws Exception {
+		Scene scene = scene();
+		RayTracer tracer = new RayTracer(scene, settings());
+		tracer.renderScene();
+		RenderMetrics first = tracer.getMetrics();
+
+		// the only pool thread waits, so the render waits for its tiles
+		ForkJoinPool pool = new ForkJoinPool(1);
+		CountDownLatch edited = new CountDownLatch(1);
+		try {
+			pool.execute(() -> {
+				try {
+					edited.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			RenderJob job = new RenderJob(tracer, 0, false).start(pool);
+			while (tracer.getMetrics() == first)
+				Thread.sleep(1);
+
+			Primitive sphere = new Primitive(new Sphere(2.5, 0, 1.5, 0.4), scene.materials.get(0));
+			scene.primitives.add(sphere);
+			tracer.primitiveAdded(sphere);
+			scene.settings.background = new Color(0.9, 0.5, 0.1);
+			tracer.backgroundChanged();
+			edited.countDown();
+			job.get();
+		} finally {
+			pool.shutdown();
+		}
+
+		tracer.renderScene();
+		assertEquals(WIDTH*HEIGHT, tracer.getMetrics().getPrimaryRays());
+		assertSame(render(scene), tracer.getImage());
+	}
+
+	private static void assertSame(BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++)
+				assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+		}
+	}
+
+	private static BufferedImage render(Scene scene) {
+		RayTracer tracer = new RayTracer(scene, settings());
+		tracer.renderScene();
+		return tracer.getImage();
+	}
+
+	private static RenderSettings settings() {
+		RenderSettings settings = new RenderSettings(WIDTH, HEIGHT, 4, 1, false, 1);
+		settings.quiet = true;
+		settings.incremental = true;
+		return settings;
+	}
+
+	// a mirror ball and a matte one on a floor, under a soft light
+	private static Scene scene() {
+		Scene scene = new Scene();
+		scene.camera = new Camera(0, 3, -6, 0, 0, 0, 0, 1, 0, 1.5, 1.2);
+		scene.settings = new SceneSettings(0.1, 0.2, 0.3, 3, 4);
+		Material mirror = new Material(0.2, 0.2, 0.2, 1, 1, 1, 0.6, 0.6, 0.6, 20, 0);
+		Material red = new Material(0.9, 0.2, 0.2, 0, 0, 0, 0, 0, 0, 1, 0);
+		Material grey = new Material(0.7, 0.7, 0.7, 0, 0, 0, 0, 0, 0, 1, 0);
+		scene.materials.add(mirror);
+		scene.materials.add(red);
+		scene.materials.add(grey);
+		scene.primitives.add(new Primitive(new Sphere(-0.8, 0, 0, 1), mirror));
+		scene.primitives.add(new Primitive(new Sphere(1, -0.5, -0.5, 0.5), red));
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), grey));
+		scene.lights.add(new Light(-2, 4, -2, 1, 1, 1, 0, 0.8, 1));
+		return scene;
+	}
+}
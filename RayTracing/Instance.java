@@ -0,0 +1,102 @@
+package RayTracing;
+
+/**
+ * A shape placed in the scene by a transform. Rays are moved into the
+ * shape's object space with the precomputed inverse matrix, so any number of
+ * instances can share one shape, each with its own position, rotation and
+ * scale, at the cost of a few multiplications per ray.
+ */
+public class Instance extends Shape3D {
+	final Shape3D shape;
+	final Transform transform;
+
+	Instance(Shape3D shape, Transform transform) {
+		this.shape = shape;
+		this.transform = transform;
+	}
+
+	@Override
+	double getHitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		Transform t = transform;
+		double px = t.i00*ox + t.i01*oy + t.i02*oz + t.i03;
+		double py = t.i10*ox + t.i11*oy + t.i12*oz + t.i13;
+		double pz = t.i20*ox + t.i21*oy + t.i22*oz + t.i23;
+		double vx = t.i00*dx + t.i01*dy + t.i02*dz;
+		double vy = t.i10*dx + t.i11*dy + t.i12*dz;
+		double vz = t.i20*dx + t.i21*dy + t.i22*dz;
+
+		// a unit world direction is scaled by the transform, and so are distances
+		double length = Math.sqrt(vx*vx + vy*vy + vz*vz);
+		double dist = shape.getHitDistance(px, py, pz, vx / length, vy / length, vz / length);
+		if (dist == -1)
+			return -1;
+		return dist / length;
+	}
+
+	@Override
+	Vector getNormalAtSurfacePoint(Vector point) {
+		return transform.normalToWorld(shape.getNormalAtSurfacePoint(transform.toObject(point)));
+	}
+
+	@Override
+	void setNormal(Hit hit) {
+		double x = hit.x, y = hit.y, z = hit.z;
+		moveToObject(hit);
+		shape.setNormal(hit);
+		moveToWorld(hit, x, y, z);
+	}
+
+	@Override
+	void setNormal(Hit hit, double ox, double oy, double oz, double dx, double dy, double dz) {
+		// the same object space ray as in getHitDistance
+		Transform t = transform;
+		double px = t.i00*ox + t.i01*oy + t.i02*oz + t.i03;
+		double py = t.i10*ox + t.i11*oy + t.i12*oz + t.i13;
+		double pz = t.i20*ox + t.i21*oy + t.i22*oz + t.i23;
+		double vx = t.i00*dx + t.i01*dy + t.i02*dz;
+		double vy = t.i10*dx + t.i11*dy + t.i12*dz;
+		double vz = t.i20*dx + t.i21*dy + t.i22*dz;
+		double length = Math.sqrt(vx*vx + vy*vy + vz*vz);
+
+		double x = hit.x, y = hit.y, z = hit.z;
+		moveToObject(hit);
+		shape.setNormal(hit, px, py, pz, vx / length, vy / length, vz / length);
+		moveToWorld(hit, x, y, z);
+	}
+
+	private void moveToObject(Hit hit) {
+		Transform t = transform;
+		double x = hit.x, y = hit.y, z = hit.z;
+		hit.x = t.i00*x + t.i01*y + t.i02*z + t.i03;
+		hit.y = t.i10*x + t.i11*y + t.i12*z + t.i13;
+		hit.z = t.i20*x + t.i21*y + t.i22*z + t.i23;
+	}
+
+	// restores the world space point and moves the normal to world space
+	private void moveToWorld(Hit hit, double x, double y, double z) {
+		Transform t = transform;
+		double nx = hit.nx, ny = hit.ny, nz = hit.nz;
+		hit.nx = t.i00*nx + t.i10*ny + t.i20*nz;
+		hit.ny = t.i01*nx + t.i11*ny + t.i21*nz;
+		hit.nz = t.i02*nx + t.i12*ny + t.i22*nz;
+		hit.x = x;
+		hit.y = y;
+		hit.z = z;
+	}
+
+	@Override
+	BoundingBox getBounds() {
+		BoundingBox bounds = shape.getBounds();
+		if (bounds.isInfinite())
+			return BoundingBox.INFINITE;
+
+		Vector[] corners = new Vector[8];
+		for (int i = 0; i < 8; i++) {
+			corners[i] = transform.toWorld(new Vector(
+				(i & 1) == 0 ? bounds.minX : bounds.maxX,
+				(i & 2) == 0 ? bounds.minY : bounds.maxY,
+				(i & 4) == 0 ? bounds.minZ : bounds.maxZ));
+		}
+		return BoundingBox.ofPoints(corners);
+	}
+}
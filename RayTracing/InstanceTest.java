@@ -0,0 +1,85 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class InstanceTest {
+
+	@Test
+	public void transformTimesInverseIsIdentity() {
+		Transform transform = Transform.of(1, -2, 3, 30, 45, 60, 2, 0.5, 1.5);
+		Vector point = new Vector(0.3, -0.7, 1.1);
+		Vector back = transform.toObject(transform.toWorld(point));
+		assertEquals(point.x, back.x, 1e-12);
+		assertEquals(point.y, back.y, 1e-12);
+		assertEquals(point.z, back.z, 1e-12);
+
+		Vector rotated = Transform.rotation(30, 45, 60).toWorld(point);
+		Vector expected = point.rotate(new Vector(30, 45, 60));
+		assertEquals(expected.x, rotated.x, 1e-12);
+		assertEquals(expected.y, rotated.y, 1e-12);
+		assertEquals(expected.z, rotated.z, 1e-12);
+	}
+
+	@Test
+	public void scaledSphereInstanceMatchesSphere() {
+		Sphere sphere = new Sphere(1, 2, 3, 2);
+		Instance instance = new Instance(new Sphere(0, 0, 0, 1), Transform.of(1, 2, 3, 10, 20, 30, 2, 2, 2));
+		Hit expected = new Hit();
+		Hit actual = new Hit();
+		Material material = new Material(1, 1, 1, 0, 0, 0, 0, 0, 0, 1, 0);
+		SplittableRandom random = new SplittableRandom(5);
+		int hits = 0;
+		for (int i = 0; i < 1000; i++) {
+			double[] ray = randomRay(random);
+			double dist = sphere.getHitDistance(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5]);
+			assertEquals(dist, instance.getHitDistance(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5]), 1e-9);
+			if (dist == -1)
+				continue;
+			hits++;
+			expected.set(new Primitive(sphere, material), dist, ray[0], ray[1], ray[2], ray[3], ray[4], ray[5]);
+			actual.set(new Primitive(instance, material), dist, ray[0], ray[1], ray[2], ray[3], ray[4], ray[5]);
+			assertEquals(expected.nx, actual.nx, 1e-9);
+			assertEquals(expected.ny, actual.ny, 1e-9);
+			assertEquals(expected.nz, actual.nz, 1e-9);
+			assertEquals(expected.x, actual.x, 0);
+		}
+		assertTrue(hits > 100);
+	}
+
+	@Test
+	public void rotatedBoxMatchesRotatingTheRay() {
+		Box box = new Box(1, 0.5, 2, 1.5, 1, 2, 30, 45, 10);
+		Box aligned = new Box(1, 0.5, 2, 1.5, 1, 2, 0, 0, 0);
+		SplittableRandom random = new SplittableRandom(9);
+		int hits = 0;
+		for (int i = 0; i < 1000; i++) {
+			double[] ray = randomRay(random);
+			Vector origin = new Vector(ray[0], ray[1], ray[2]).reverseRotation(box.rotation, box.position);
+			Vector direction = new Vector(ray[3], ray[4], ray[5]).reverseRotation(box.rotation).normalize();
+			double expected = aligned.getHitDistance(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z);
+			double dist = box.getHitDistance(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5]);
+			assertEquals(expected, dist, 1e-9);
+			if (dist != -1)
+				hits++;
+		}
+		assertTrue(hits > 100);
+	}
+
+	// from a point on a sphere of radius 8 around (1, 1, 2) towards a point near it
+	private static double[] randomRay(SplittableRandom random) {
+		double ox = random.nextDouble(-1, 1), oy = random.nextDouble(-1, 1), oz = random.nextDouble(-1, 1);
+		double norm = Math.sqrt(ox*ox + oy*oy + oz*oz);
+		ox = 1 + ox/norm*8;
+		oy = 1 + oy/norm*8;
+		oz = 2 + oz/norm*8;
+		double dx = 1 + random.nextDouble(-3, 3) - ox;
+		double dy = 1 + random.nextDouble(-3, 3) - oy;
+		double dz = 2 + random.nextDouble(-3, 3) - oz;
+		norm = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		return new double[] {ox, oy, oz, dx/norm, dy/norm, dz/norm};
+	}
+}
@@ -0,0 +1,103 @@
+package RayTracing;
+
+/**
+ * Tests one ray against a range of packed primitives.
+ *
+ * The shared instance uses the Vector API when the jdk.incubator.vector
+ * module is present (run with --add-modules jdk.incubator.vector) and falls
+ * back to a scalar loop otherwise. Setting -Draytracer.kernel=scalar forces
+ * the fallback.
+ */
+abstract class IntersectionKernel {
+
+	// slots a kernel may read or write past the end of a range
+	static final int PADDING = 8;
+
+	static final IntersectionKernel INSTANCE = create();
+
+	/**
+	 * Size of the dist array callers should pass to intersect.
+	 */
+	static final int SCRATCH_SIZE = BVH.MAX_LEAF_SIZE + PADDING;
+
+	/**
+	 * Writes the hit distance of every primitive in [start, start+count) into
+	 * dist[0..count), or -1 for the primitives the ray misses. Entries of dist
+	 * past count may be overwritten.
+	 */
+	abstract void intersect(PackedPrimitives packed, int start, int count,
+			double ox, double oy, double oz, double dx, double dy, double dz, double[] dist);
+
+	abstract String getName();
+
+	private static IntersectionKernel create() {
+		boolean forceScalar = "scalar".equals(System.getProperty("raytracer.kernel"));
+		if (!forceScalar && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return (IntersectionKernel) Class.forName("RayTracing.VectorIntersectionKernel")
+					.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				System.out.println("Vector API unavailable, using scalar intersection kernel: " + e);
+			}
+		}
+		return new ScalarIntersectionKernel();
+	}
+
+	static double intersectSphere(PackedPrimitives p, int i,
+			double ox, double oy, double oz, double dx, double dy, double dz) {
+		double ocx = ox - p.centerX[i];
+		double ocy = oy - p.centerY[i];
+		double ocz = oz - p.centerZ[i];
+		double b = ocx*dx + ocy*dy + ocz*dz;
+		double c = ocx*ocx + ocy*ocy + ocz*ocz - p.radiusSquared[i];
+
+		double discriminant = b*b - c;
+		if (!(discriminant >= 0))
+			return -1;
+
+		discriminant = Math.sqrt(discriminant);
+		double t1 = -b - discriminant;
+		double t2 = -b + discriminant;
+		if (t1 >= 0)
+			return t1;
+		if (t2 > 0)
+			return t2;
+		return -1;
+	}
+
+	static double intersectBox(PackedPrimitives p, int i,
+			double ox, double oy, double oz, double invX, double invY, double invZ) {
+		double tx1 = (p.minX[i] - ox)*invX;
+		double tx2 = (p.maxX[i] - ox)*invX;
+		double tmin = Math.min(tx1, tx2);
+		double tmax = Math.max(tx1, tx2);
+
+		double ty1 = (p.minY[i] - oy)*invY;
+		double ty2 = (p.maxY[i] - oy)*invY;
+		tmin = Math.max(tmin, Math.min(ty1, ty2));
+		tmax = Math.min(tmax, Math.max(ty1, ty2));
+
+		double tz1 = (p.minZ[i] - oz)*invZ;
+		double tz2 = (p.maxZ[i] - oz)*invZ;
+		tmin = Math.max(tmin, Math.min(tz1, tz2));
+		tmax = Math.min(tmax, Math.max(tz1, tz2));
+
+		if (!(tmax >= tmin) || tmax < 0)
+			return -1;
+		return tmin < 0 ? tmax : tmin;
+	}
+
+	static double intersectPlane(PackedPrimitives p, int i,
+			double ox, double oy, double oz, double dx, double dy, double dz) {
+		double nx = p.normalX[i], ny = p.normalY[i], nz = p.normalZ[i];
+		double cosOfAngle = (dx*nx + dy*ny + dz*nz) * p.inverseNormalLength[i];
+
+		if (Math.abs(cosOfAngle) < RayTracer.EPSILON)
+			return -1;
+
+		double t = (p.offset[i] - (nx*ox + ny*oy + nz*oz)) / cosOfAngle;
+		if (t < 0)
+			return -1;
+		return t;
+	}
+}
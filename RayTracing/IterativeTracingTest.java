@@ -0,0 +1,71 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class IterativeTracingTest {
+
+	private static final int WIDTH = 40, HEIGHT = 30;
+
+	@Test
+	public void iterativeTracingMatchesTheRecursion() {
+		// in packets, by pixel with samples, and with Russian roulette
+		assertSameRender(settings(false, 1, 0.002, false));
+		assertSameRender(settings(true, 2, 0.002, false));
+		assertSameRender(settings(false, 1, 0, false));
+		assertSameRender(settings(true, 2, 0.05, true));
+	}
+
+	private static void assertSameRender(RenderSettings settings) {
+		settings.recursiveTracing = true;
+		RayTracer recursive = render(settings);
+		settings.recursiveTracing = false;
+		RayTracer iterative = render(settings);
+
+		BufferedImage expected = recursive.getImage(), actual = iterative.getImage();
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++)
+				assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+		}
+		RenderMetrics a = recursive.getMetrics(), b = iterative.getMetrics();
+		assertTrue(a.getReflectionRays() > 0 && a.getTransparencyRays() > 0);
+		assertEquals(a.getReflectionRays(), b.getReflectionRays());
+		assertEquals(a.getTransparencyRays(), b.getTransparencyRays());
+		assertEquals(a.getShadowRays(), b.getShadowRays());
+	}
+
+	private static RenderSettings settings(boolean antiAliasing, int samples, double minRayWeight, boolean roulette) {
+		RenderSettings settings = new RenderSettings(WIDTH, HEIGHT, 8, 1, antiAliasing, samples);
+		settings.quiet = true;
+		settings.minRayWeight = minRayWeight;
+		settings.russianRoulette = roulette;
+		settings.seed = 7;
+		return settings;
+	}
+
+	// a glass sphere between two mirrors, over a floor lit by a soft light
+	private static RayTracer render(RenderSettings settings) {
+		Scene scene = new Scene();
+		scene.camera = new Camera(0.5, 1, -5, 0, 0, 2, 0, 1, 0, 1.2, 1.2);
+		scene.settings = new SceneSettings(0.1, 0.2, 0.3, 3, 8);
+		Material mirror = new Material(0.1, 0.1, 0.2, 0, 0, 0, 0.8, 0.7, 0.7, 1, 0);
+		Material glass = new Material(0.8, 0.3, 0.1, 1, 1, 1, 0.2, 0.2, 0.2, 20, 0.6);
+		Material floor = new Material(0.6, 0.6, 0.5, 0, 0, 0, 0.1, 0.1, 0.1, 1, 0);
+		scene.materials.add(mirror);
+		scene.materials.add(glass);
+		scene.materials.add(floor);
+		scene.primitives.add(new Primitive(new Plane(1, 0, 0, -3), mirror));
+		scene.primitives.add(new Primitive(new Plane(-1, 0, 0, -3), mirror));
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), floor));
+		scene.primitives.add(new Primitive(new Sphere(0, 0, 2, 1), glass));
+		scene.primitives.add(new Primitive(new Sphere(1.5, -0.5, 0.5, 0.5), glass));
+		scene.lights.add(new Light(0, 4, 0, 1, 1, 1, 0.5, 0.8, 1));
+
+		RayTracer tracer = new RayTracer(scene, settings);
+		tracer.renderScene();
+		return tracer;
+	}
+}
@@ -0,0 +1,94 @@
+package RayTracing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokens and numbers scanned straight from the bytes of a text file, shared
+ * by the scene and mesh parsers.
+ */
+final class Numbers {
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private Numbers() {
+	}
+
+	static boolean isSpace(byte b) {
+		return b >= 0 && b <= ' ';
+	}
+
+	// the first non-space from pos on, or end
+	static int skipSpaces(byte[] text, int pos, int end) {
+		while (pos < end && isSpace(text[pos]))
+			pos++;
+		return pos;
+	}
+
+	// the end of the token starting at pos
+	static int tokenEnd(byte[] text, int pos, int end) {
+		while (pos < end && !isSpace(text[pos]))
+			pos++;
+		return pos;
+	}
+
+	/**
+	 * The number in text[start, end). Plain decimals with up to 15
+	 * significant digits and exponents up to 22 are parsed here, exactly as
+	 * Double.parseDouble would: the digits and the power of ten are both
+	 * exact doubles, so one rounded division or multiplication gives the
+	 * nearest double. Anything else goes to Double.parseDouble.
+	 *
+	 * @throws NumberFormatException if the bytes are not a number
+	 */
+	static double parseDouble(byte[] text, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (text[i] == '-' || text[i] == '+'))
+			negative = text[i++] == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		for (; i < end && text[i] >= '0' && text[i] <= '9'; i++) {
+			any = true;
+			mantissa = mantissa*10 + (text[i] - '0');
+			if (mantissa != 0)
+				digits++;
+		}
+		if (i < end && text[i] == '.') {
+			for (i++; i < end && text[i] >= '0' && text[i] <= '9'; i++) {
+				any = true;
+				mantissa = mantissa*10 + (text[i] - '0');
+				if (mantissa != 0)
+					digits++;
+				exponent--;
+			}
+		}
+		if (i < end && (text[i] == 'e' || text[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (text[i] == '-' || text[i] == '+'))
+				negativeExponent = text[i++] == '-';
+			int value = 0;
+			int exponentStart = i;
+			for (; i < end && i - exponentStart < 4 && text[i] >= '0' && text[i] <= '9'; i++) {
+				value = value*10 + (text[i] - '0');
+			}
+			if (i == exponentStart)
+				return slowParseDouble(text, start, end);
+			exponent += negativeExponent ? -value : value;
+		}
+		if (!any || i != end || digits > 15 || exponent < -22 || exponent > 22)
+			return slowParseDouble(text, start, end);
+
+		double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		return negative ? -value : value;
+	}
+
+	private static double slowParseDouble(byte[] text, int start, int end) {
+		return Double.parseDouble(new String(text, start, end - start, StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,225 @@
+package RayTracing;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of Wavefront OBJ meshes. The file is read a buffer at a
+ * time and parsed a line at a time straight from the bytes, into growing
+ * primitive arrays, so loading allocates nothing per vertex or face.
+ *
+ * Reads v, vn and f lines and ignores the rest (texture coordinates, groups,
+ * materials). Faces may use negative (relative) indices and have any number
+ * of corners, polygons are split into a fan of triangles. Vertex normals are
+ * kept only if every face has them.
+ */
+class ObjLoader {
+
+	private final InputStream in;
+	private final String name;
+	private final byte[] buffer = new byte[1 << 16];
+	private int bufferPos, bufferEnd;
+
+	private byte[] line = new byte[256];
+	private int pos, end;
+	private int lineNum;
+
+	private float[] vertices = new float[3*1024];
+	private int vertexCount;
+	private float[] normals = new float[3*1024];
+	private int normalCount;
+	private int[] triangles = new int[3*1024];
+	private int[] normalIndices = new int[3*1024];
+	private int triangleCount;
+	private boolean everyFaceHasNormals = true;
+
+	private ObjLoader(InputStream in, String name) {
+		this.in = in;
+		this.name = name;
+	}
+
+	static TriangleMesh load(String fileName) throws IOException {
+		try (InputStream in = new FileInputStream(fileName)) {
+			return load(in, fileName);
+		}
+	}
+
+	/**
+	 * @param name file name for error messages
+	 */
+	static TriangleMesh load(InputStream in, String name) throws IOException {
+		ObjLoader loader = new ObjLoader(in, name);
+		while (loader.readLine()) {
+			loader.parseLine();
+		}
+		return loader.createMesh();
+	}
+
+	private TriangleMesh createMesh() {
+		float[] v = Arrays.copyOf(vertices, vertexCount*3);
+		int[] t = Arrays.copyOf(triangles, triangleCount*3);
+		if (normalCount == 0 || !everyFaceHasNormals)
+			return TriangleMesh.build(v, t, null, null);
+		return TriangleMesh.build(v, t, Arrays.copyOf(normals, normalCount*3),
+			Arrays.copyOf(normalIndices, triangleCount*3));
+	}
+
+	// reads the next line into line[0, end), false at the end of the input
+	private boolean readLine() throws IOException {
+		end = 0;
+		pos = 0;
+		while (true) {
+			if (bufferPos == bufferEnd) {
+				bufferEnd = in.read(buffer);
+				bufferPos = 0;
+				if (bufferEnd <= 0) {
+					bufferEnd = 0;
+					if (end == 0)
+						return false;
+					lineNum++;
+					return true;
+				}
+			}
+			byte b = buffer[bufferPos++];
+			if (b == '\n') {
+				lineNum++;
+				return true;
+			}
+			if (end == line.length)
+				line = Arrays.copyOf(line, end*2);
+			line[end++] = b;
+		}
+	}
+
+	private void parseLine() throws IOException {
+		skipSpaces();
+		if (pos == end || line[pos] == '#')
+			return;
+
+		int start = pos;
+		pos = Numbers.tokenEnd(line, pos, end);
+		int length = pos - start;
+
+		if (length == 1 && line[start] == 'v') {
+			if (vertexCount*3 == vertices.length)
+				vertices = Arrays.copyOf(vertices, vertices.length*2);
+			for (int i = 0; i < 3; i++)
+				vertices[vertexCount*3+i] = (float) parseNumber();
+			vertexCount++;
+		}
+		else if (length == 2 && line[start] == 'v' && line[start+1] == 'n') {
+			if (normalCount*3 == normals.length)
+				normals = Arrays.copyOf(normals, normals.length*2);
+			for (int i = 0; i < 3; i++)
+				normals[normalCount*3+i] = (float) parseNumber();
+			normalCount++;
+		}
+		else if (length == 1 && line[start] == 'f') {
+			parseFace();
+		}
+	}
+
+	private void parseFace() throws IOException {
+		int first = -1, firstNormal = -1, previous = -1, previousNormal = -1;
+		int corners = 0;
+		skipSpaces();
+		while (pos < end) {
+			int vertex = toIndex(parseInt(), vertexCount, "vertex");
+			int normal = -1;
+			if (pos < end && line[pos] == '/') {
+				pos++;
+				// texture coordinate
+				if (pos < end && line[pos] != '/' && !Numbers.isSpace(line[pos]))
+					parseInt();
+				if (pos < end && line[pos] == '/') {
+					pos++;
+					normal = toIndex(parseInt(), normalCount, "normal");
+				}
+			}
+			if (pos < end && !Numbers.isSpace(line[pos]))
+				throw error("bad face corner");
+			if (normal < 0)
+				everyFaceHasNormals = false;
+
+			if (corners == 0) {
+				first = vertex;
+				firstNormal = normal;
+			}
+			else if (corners >= 2) {
+				addTriangle(first, previous, vertex, firstNormal, previousNormal, normal);
+			}
+			previous = vertex;
+			previousNormal = normal;
+			corners++;
+			skipSpaces();
+		}
+		if (corners < 3)
+			throw error("face with less than 3 corners");
+	}
+
+	private void addTriangle(int a, int b, int c, int na, int nb, int nc) {
+		if (triangleCount*3 == triangles.length) {
+			triangles = Arrays.copyOf(triangles, triangles.length*2);
+			normalIndices = Arrays.copyOf(normalIndices, normalIndices.length*2);
+		}
+		int t = triangleCount*3;
+		triangles[t] = a;
+		triangles[t+1] = b;
+		triangles[t+2] = c;
+		normalIndices[t] = na;
+		normalIndices[t+1] = nb;
+		normalIndices[t+2] = nc;
+		triangleCount++;
+	}
+
+	// OBJ indices count from 1, negative ones back from the last element
+	private int toIndex(int index, int count, String kind) throws IOException {
+		int i = index < 0 ? count + index : index - 1;
+		if (index == 0 || i < 0 || i >= count)
+			throw error(kind + " " + index + " out of range");
+		return i;
+	}
+
+	private int parseInt() throws IOException {
+		boolean negative = false;
+		if (pos < end && (line[pos] == '-' || line[pos] == '+'))
+			negative = line[pos++] == '-';
+		int start = pos;
+		long value = 0;
+		while (pos < end && line[pos] >= '0' && line[pos] <= '9') {
+			value = value*10 + (line[pos++] - '0');
+			if (value > Integer.MAX_VALUE)
+				throw error("index too large");
+		}
+		if (pos == start)
+			throw error("expected an index");
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Decimal number with an optional fraction and exponent, see
+	 * Numbers.parseDouble.
+	 */
+	private double parseNumber() throws IOException {
+		skipSpaces();
+		int start = pos;
+		pos = Numbers.tokenEnd(line, pos, end);
+		if (pos == start)
+			throw error("expected a number");
+		try {
+			return Numbers.parseDouble(line, start, pos);
+		} catch (NumberFormatException e) {
+			throw error("bad number");
+		}
+	}
+
+	private void skipSpaces() {
+		pos = Numbers.skipSpaces(line, pos, end);
+	}
+
+	private IOException error(String message) {
+		return new IOException(name + ":" + lineNum + ": " + message);
+	}
+}
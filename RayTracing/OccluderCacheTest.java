@@ -0,0 +1,44 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class OccluderCacheTest {
+
+	@Test
+	public void cachedOccluderAnswersShadowRaysInOneTest() {
+		SplittableRandom random = new SplittableRandom(5);
+		Material opaque = new Material(1, 1, 1, 0, 0, 0, 0, 0, 0, 1, 0);
+		Material glass = new Material(1, 1, 1, 0, 0, 0, 0, 0, 0, 1, 0.5);
+		List<Primitive> primitives = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			primitives.add(new Primitive(new Sphere(random.nextDouble(-20, 20), random.nextDouble(-1, 8),
+				random.nextDouble(-20, 20), random.nextDouble(0.1, 0.5)), i % 4 == 0 ? glass : opaque));
+		}
+		// a wide roof between the light and the floor
+		primitives.add(new Primitive(new Box(0, 9, 0, 30, 0.5, 30, 0, 0, 0), opaque));
+		Accelerator.Query cached = new Accelerator(primitives).newQuery();
+		Accelerator.Query plain = new Accelerator(primitives).newQuery();
+
+		double lx = 0, ly = 12, lz = 0;
+		int blocked = 0;
+		for (int i = 0; i < 2000; i++) {
+			double px = random.nextDouble(-20, 20), pz = random.nextDouble(-20, 20);
+			double dx = px - lx, dy = -1 - ly, dz = pz - lz;
+			double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			double expected = plain.getTransmittance(lx, ly, lz, dx/dist, dy/dist, dz/dist, dist);
+			assertEquals(expected, cached.getTransmittance(0, lx, ly, lz, dx/dist, dy/dist, dz/dist, dist), 0);
+			if (expected == 0)
+				blocked++;
+		}
+		assertTrue(blocked > 1900);
+		// the roof is found once and then answers every ray
+		assertTrue(cached.occluderHits > 1900);
+		assertTrue(cached.intersectionTests < 2000 + plain.intersectionTests / 100);
+	}
+}
@@ -0,0 +1,103 @@
+package RayTracing;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays copy of a list of primitives for the intersection kernels.
+ *
+ * Every primitive has a slot in every array. Slots that don't belong to the
+ * primitive's kind hold NaN, which the kernels treat as a miss, so a range of
+ * mixed primitives can be tested lane by lane without branching on the kind.
+ * Primitives that have no packed form (rotated boxes and anything else) are
+ * marked OTHER and are intersected through their Shape3D. The arrays are
+ * padded with IntersectionKernel.PADDING NaN slots so that kernels can load
+ * whole vectors past the end of a range.
+ */
+class PackedPrimitives {
+	static final int SPHERE = 0;
+	static final int BOX    = 1;
+	static final int PLANE  = 2;
+	static final int OTHER  = 3;
+
+	final Primitive[] primitives;
+	final int[] kind;
+	final int size;
+
+	// spheres
+	final double[] centerX, centerY, centerZ, radiusSquared;
+	// axis aligned boxes
+	final double[] minX, minY, minZ, maxX, maxY, maxZ;
+	// planes
+	final double[] normalX, normalY, normalZ, offset, inverseNormalLength;
+
+	int spheres, boxes, planes, others;
+
+	PackedPrimitives(Primitive[] primitives) {
+		this.primitives = primitives;
+		size = primitives.length;
+		kind = new int[size];
+
+		centerX = nanArray(size);
+		centerY = nanArray(size);
+		centerZ = nanArray(size);
+		radiusSquared = nanArray(size);
+
+		minX = nanArray(size);
+		minY = nanArray(size);
+		minZ = nanArray(size);
+		maxX = nanArray(size);
+		maxY = nanArray(size);
+		maxZ = nanArray(size);
+
+		normalX = nanArray(size);
+		normalY = nanArray(size);
+		normalZ = nanArray(size);
+		offset = nanArray(size);
+		inverseNormalLength = nanArray(size);
+
+		for (int i = 0; i < size; i++) {
+			Shape3D shape = primitives[i].shape;
+
+			if (shape instanceof Sphere) {
+				Sphere sphere = (Sphere) shape;
+				kind[i] = SPHERE;
+				centerX[i] = sphere.center.x;
+				centerY[i] = sphere.center.y;
+				centerZ[i] = sphere.center.z;
+				radiusSquared[i] = sphere.radius*sphere.radius;
+				spheres++;
+			}
+			else if (shape instanceof Box && ((Box) shape).rotation.equals(Vector.ZERO)) {
+				Box box = (Box) shape;
+				kind[i] = BOX;
+				minX[i] = box.x0;
+				minY[i] = box.y0;
+				minZ[i] = box.z0;
+				maxX[i] = box.x1;
+				maxY[i] = box.y1;
+				maxZ[i] = box.z1;
+				boxes++;
+			}
+			else if (shape instanceof Plane) {
+				Plane plane = (Plane) shape;
+				kind[i] = PLANE;
+				normalX[i] = plane.normal.x;
+				normalY[i] = plane.normal.y;
+				normalZ[i] = plane.normal.z;
+				offset[i] = plane.offset;
+				inverseNormalLength[i] = 1 / plane.normal.norm();
+				planes++;
+			}
+			else {
+				kind[i] = OTHER;
+				others++;
+			}
+		}
+	}
+
+	private static double[] nanArray(int size) {
+		double[] array = new double[size + IntersectionKernel.PADDING];
+		Arrays.fill(array, Double.NaN);
+		return array;
+	}
+}
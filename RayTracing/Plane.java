@@ -1,30 +1,29 @@
 package RayTracing;
 
-import java.util.Random;
-
 public class Plane extends Shape3D{
-	private final Vector normal;
-	private final double offset;
+	final Vector normal;
+	final double offset;
+	private final double inverseNormalLength;
 
 	Plane(double nx, double ny, double nz, double offset) {
-		normal = (new Vector(nx, ny, nz));
-		this.offset = offset;
+		this(new Vector(nx, ny, nz), offset);
 	}
 
 	Plane(Vector normal, double offset) {
 		this.normal = normal;
 		this.offset = offset;
+		inverseNormalLength = 1 / normal.norm();
 	}
 
 	@Override
-	double getHitDistance(Ray ray) {
-		double cosOfAngle = ray.dir.getCosOfAngle(normal);
+	double getHitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		double cosOfAngle = (dx*normal.x + dy*normal.y + dz*normal.z) * inverseNormalLength;
 
 		if (Math.abs(cosOfAngle) < RayTracer.EPSILON) {
 			return -1;
 		}
 
-		double t = (offset - normal.dot(ray.p0)) / cosOfAngle;
+		double t = (offset - (normal.x*ox + normal.y*oy + normal.z*oz)) / cosOfAngle;
 		if (t < 0) {
 			return -1;
 		}
@@ -37,10 +36,38 @@ public class Plane extends Shape3D{
 		return normal;
 	}
 
-	Vector getRandomDirection(){
-		Random r = new Random();
-		double x = r.nextDouble();
-		double y = r.nextDouble();
+	@Override
+	void setNormal(Hit hit) {
+		hit.nx = normal.x;
+		hit.ny = normal.y;
+		hit.nz = normal.z;
+	}
+
+	@Override
+	BoundingBox getBounds() {
+		return BoundingBox.INFINITE;
+	}
+
+	/**
+	 * False if the box is wholly on one side of the plane. Planes with a
+	 * normal not of unit length aren't hit on normal.p = offset exactly and
+	 * always may cross.
+	 */
+	@Override
+	boolean mayCross(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		if (Math.abs(inverseNormalLength - 1) > 1e-9)
+			return true;
+		double low  = (normal.x > 0 ? minX : maxX)*normal.x + (normal.y > 0 ? minY : maxY)*normal.y
+			+ (normal.z > 0 ? minZ : maxZ)*normal.z;
+		double high = (normal.x > 0 ? maxX : minX)*normal.x + (normal.y > 0 ? maxY : minY)*normal.y
+			+ (normal.z > 0 ? maxZ : minZ)*normal.z;
+		double margin = 1e-6*Math.max(1, Math.abs(offset));
+		return low <= offset + margin && high >= offset - margin;
+	}
+
+	Vector getRandomDirection(Sampler sampler){
+		double x = sampler.next();
+		double y = sampler.next();
 		return new Vector(x, y, -x*normal.x/normal.z-y*normal.y/normal.z);
 	}
 }
@@ -0,0 +1,16 @@
+package RayTracing;
+
+/**
+ * Independent uniform values.
+ */
+class RandomSampler extends Sampler {
+
+	RandomSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	double get(int dimension) {
+		return random(dimension);
+	}
+}
@@ -0,0 +1,24 @@
+package RayTracing;
+
+/**
+ * Primary rays of a block of up to WIDTH x HEIGHT neighbouring pixels, stored
+ * row by row, that Accelerator.Query.getClosestHits traces through the BVH
+ * together. Directions must be of unit length.
+ */
+class RayPacket {
+	static final int WIDTH = 4;
+	static final int HEIGHT = 2;
+	static final int MAX_SIZE = WIDTH*HEIGHT;
+
+	int size;
+	final double[] ox = new double[MAX_SIZE];
+	final double[] oy = new double[MAX_SIZE];
+	final double[] oz = new double[MAX_SIZE];
+	final double[] dx = new double[MAX_SIZE];
+	final double[] dy = new double[MAX_SIZE];
+	final double[] dz = new double[MAX_SIZE];
+
+	// closest primitive of every ray, null if it hits nothing, and its distance
+	final Primitive[] closest = new Primitive[MAX_SIZE];
+	final double[] dist = new double[MAX_SIZE];
+}
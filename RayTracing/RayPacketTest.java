@@ -0,0 +1,50 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class RayPacketTest {
+
+	@Test
+	public void packetHitsMatchSingleRays() {
+		SplittableRandom random = new SplittableRandom(3);
+		Material material = new Material(1, 1, 1, 0, 0, 0, 0, 0, 0, 1, 0);
+		List<Primitive> primitives = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			double x = random.nextDouble(-10, 10);
+			double y = random.nextDouble(-10, 10);
+			double z = random.nextDouble(5, 30);
+			if (i % 3 == 0)
+				primitives.add(new Primitive(new Box(x, y, z, 1, 1, 1, 0, 0, 0), material));
+			else
+				primitives.add(new Primitive(new Sphere(x, y, z, random.nextDouble(0.2, 1.5)), material));
+		}
+		primitives.add(new Primitive(new Plane(0, 1, 0, -12), material));
+
+		Accelerator accelerator = new Accelerator(primitives);
+		Accelerator.Query query = accelerator.newQuery();
+		Camera camera = new Camera(0, 0, 0, 0, 0, 1, 0, 1, 0, 1, 1.5);
+		camera.build(64, 48);
+
+		RayPacket packet = new RayPacket();
+		Hit hit = new Hit();
+		for (int y = 0; y < 48; y += RayPacket.HEIGHT) {
+			for (int x = 0; x < 64; x += RayPacket.WIDTH) {
+				camera.getPacketRays(x, y, RayPacket.WIDTH, RayPacket.HEIGHT, packet);
+				query.getClosestHits(packet);
+				for (int r = 0; r < packet.size; r++) {
+					boolean found = query.getClosestHit(packet.ox[r], packet.oy[r], packet.oz[r],
+						packet.dx[r], packet.dy[r], packet.dz[r], hit);
+					assertSame(found ? hit.primitive : null, packet.closest[r]);
+					if (found)
+						assertEquals(hit.dist, packet.dist[r], 0);
+				}
+			}
+		}
+	}
+}
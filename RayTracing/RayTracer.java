@@ -1,16 +1,21 @@
 package RayTracing;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.concurrent.ExecutorService;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.imageio.ImageIO;
 
@@ -21,23 +26,38 @@ public class RayTracer {
 
 	public static final double EPSILON = 5e-10;
 	final Scene scene;
-	public AtomicInteger curColumn = new AtomicInteger();
-	public int progress = 0;
-	private BufferedImage image;
-	ArrayList<Integer> shuffledArray;
+	private final FrameBuffer frameBuffer;
+	// progressive mode: sum of the samples of every pixel, 3 channels each
+	float[] accumulation;
+	int passes;
+	// adaptive anti-aliasing: number of samples taken for every pixel
+	int[] sampleCounts;
 	RenderSettings settings;
-	public boolean halt;
+	Accelerator accelerator;
+	RenderMetrics metrics;
+	public volatile boolean halt;
+	// held by the RenderJob rendering with the tracer, see RenderJob.run
+	final ReentrantLock jobLock = new ReentrantLock();
+	// lowered during a render by the governor of a RenderJob, see
+	// RenderJob; each tile takes the limits in force when it starts
+	volatile int sampleLimit = Integer.MAX_VALUE, shadowRayLimit = Integer.MAX_VALUE;
+	// the fewest samples per pixel and shadow rays per light side of any tile
+	private final AtomicInteger fewestSamples = new AtomicInteger();
+	private final AtomicInteger fewestShadowRays = new AtomicInteger();
+	// with settings.incremental, what the pixels of the last complete render
+	// touched and the pixels edits since then may have changed, see Footprint
+	Footprint footprint;
+	private BitSet stale;
+	private Camera footprintCamera;
+	// a render is taking a footprint, and an edit came in meanwhile
+	private boolean rendering, editedWhileRendering;
+	// the pixels the current render traces, null for all of them
+	BitSet retrace;
 
 	public RayTracer(Scene scene, RenderSettings settings){
 		this.scene = scene;
 		this.settings = settings;
-		image = new BufferedImage(settings.imageWidth, settings.imageHeight, BufferedImage.TYPE_INT_RGB);
-		shuffledArray = new ArrayList<>();
-		for (int i = 0; i < settings.imageWidth; i++) {
-			shuffledArray.add(i);
-		}
-		Collections.shuffle(shuffledArray);
-		
+		frameBuffer = new FrameBuffer(settings.imageWidth, settings.imageHeight);
 	}
 	
 /**
@@ -86,140 +106,33 @@ public class RayTracer {
   * Parses the scene file and creates the scene. Change this function so it generates the required objects.
   */
 	public static Scene parseScene(String sceneFileName) throws IOException, RayTracerException{
-		FileReader fr = new FileReader(sceneFileName);
-		return parseScene(fr);
+		return parseScene(new File(sceneFileName));
 	}
 	
+	/**
+	  * Loads the scene through its binary cache, see SceneCache.
+	  */
 	public static Scene parseScene(File sceneFile) throws IOException, RayTracerException{
-		FileReader fr = new FileReader(sceneFile);
-		return parseScene(fr);
+		return SceneCache.load(sceneFile);
 	}
 	
 	public static Scene parseScene(FileReader fr) throws IOException, RayTracerException{
-		BufferedReader r = new BufferedReader(fr);
-		String line = null;
-		int lineNum = 0;
-		Scene scene = new Scene();
-
-		while ((line = r.readLine()) != null){
-			line = line.trim();
-			++lineNum;
-
-			// This line in the scene file is a comment
-			if (line.isEmpty() || (line.charAt(0) == '#'))
-				continue;
-			
-			// Split according to white space characters:
-			String[] params = line.substring(3).trim().toLowerCase().split("\\s+");
-			String code = line.substring(0, 3).toLowerCase();
-			
-			//Parse camera
-			if (code.equals("cam")){
-				scene.camera = new Camera(
-                    	Double.parseDouble(params[0]),
-						Double.parseDouble(params[1]),
-						Double.parseDouble(params[2]),
-						Double.parseDouble(params[3]),
-						Double.parseDouble(params[4]),
-						Double.parseDouble(params[5]),
-						Double.parseDouble(params[6]),
-						Double.parseDouble(params[7]),
-						Double.parseDouble(params[8]),
-						Double.parseDouble(params[9]),
-						Double.parseDouble(params[10]));
-			}
-			
-			//Parse scene settings
-			else if (code.equals("set")){
-				scene.settings = new SceneSettings(
-                    	Double.parseDouble(params[0]),
-						Double.parseDouble(params[1]),
-						Double.parseDouble(params[2]),
-						Integer.parseInt(params[3]),
-						Integer.parseInt(params[4])
-					);
-			}
-			
-			//Parse materials
-			else if (code.equals("mtl")){
-				scene.materials.add(new Material(
-						Double.parseDouble(params[0]),
-						Double.parseDouble(params[1]),
-						Double.parseDouble(params[2]),
-						Double.parseDouble(params[3]),
-						Double.parseDouble(params[4]),
-						Double.parseDouble(params[5]),
-						Double.parseDouble(params[6]),
-						Double.parseDouble(params[7]),
-						Double.parseDouble(params[8]),
-						Double.parseDouble(params[9]),
-						Double.parseDouble(params[10]))
-					);
-			}
-			
-			//Parse spheres
-			else if (code.equals("sph")){
-				scene.primitives.add(new Primitive(new Sphere(
-	                	Double.parseDouble(params[0]),
-	                	Double.parseDouble(params[1]),
-		                Double.parseDouble(params[2]),
-		                Double.parseDouble(params[3])),
-		                scene.materials.get(Integer.parseInt(params[4]) - 1))
-	                );
-			}
-			
-			//Parse planes
-			else if (code.equals("pln")){
-				scene.primitives.add(new Primitive(new Plane(
-	                	Double.parseDouble(params[0]),
-	                	Double.parseDouble(params[1]),
-		                Double.parseDouble(params[2]),
-		                Double.parseDouble(params[3])),
-		                scene.materials.get(Integer.parseInt(params[4]) - 1))
-	                );
-			}
-			
-			//Parse boxes
-			else if (code.equals("box")){
-				scene.primitives.add(new Primitive(new Box(
-		                Double.parseDouble(params[0]),
-		                Double.parseDouble(params[1]),
-		                Double.parseDouble(params[2]),
-		                Double.parseDouble(params[3]),
-		                Double.parseDouble(params[4]),
-		                Double.parseDouble(params[5]),
-		                Double.parseDouble(params[6]),
-		                Double.parseDouble(params[7]),
-		                Double.parseDouble(params[8])),
-		                scene.materials.get(0))
-		            );
-			}
-			
-			//Parse lights
-			else if (code.equals("lgt")){
-				scene.lights.add(new Light(
-                    	Double.parseDouble(params[0]),
-	                	Double.parseDouble(params[1]),
-		                Double.parseDouble(params[2]),
-                    	Double.parseDouble(params[3]),
-						Double.parseDouble(params[4]),
-						Double.parseDouble(params[5]),
-						Double.parseDouble(params[6]),
-						Double.parseDouble(params[7]),
-						Double.parseDouble(params[8]))
-                    );
-			}
-				
-			else{
-				System.out.println(String.format("ERROR: Did not recognize object: %s (line %d)", code, lineNum));
-			}
-		}
-		r.close();
+		return parseScene(fr, null);
+	}
 
-        if (scene.camera == null)
-			throw new RayTracerException("camera is undefined");
-		
-		return scene;
+	/**
+	  * Mesh files are looked up relative to the directory, null for the
+	  * working directory. See SceneParser.
+	  */
+	public static Scene parseScene(Reader reader, File directory) throws IOException, RayTracerException{
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[1 << 14];
+		try (Reader r = reader) {
+			int n;
+			while ((n = r.read(buffer)) > 0)
+				text.append(buffer, 0, n);
+		}
+		return SceneParser.parse(text.toString().getBytes(StandardCharsets.UTF_8), "scene", directory);
 	}
 
 /**
@@ -227,44 +140,266 @@ public class RayTracer {
   */
 
 	public void renderScene() {
+		ForkJoinPool pool = new ForkJoinPool(settings.numOfThreads);
+		try {
+			renderScene(pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	  * Renders the scene on the threads of the given pool and leaves the pool
+	  * running. Several renders may share a pool at the same time, their tiles
+	  * then interleave.
+	  */
+	public void renderScene(ForkJoinPool pool) {
 		long startTime = System.currentTimeMillis();
-		int imageWidth = settings.imageWidth;
-		int imageHeight = settings.imageHeight;
-		scene.camera.build(imageWidth, imageHeight);
-		
-		RayTracingWorker[] workers = new RayTracingWorker[settings.numOfThreads];
-
-		ExecutorService es = Executors.newCachedThreadPool();
-
-		System.out.print("Rendering");
-		for (int i = 0; i < settings.numOfThreads; i++) {
-			workers[i] = new RayTracingWorker(this);
-			es.execute(workers[i]);
+		// before prepare, so that it sees the primitives of every edit
+		// startFootprint left to this render
+		startFootprint();
+		prepare();
+		if (retrace == null) {
+			sampleCounts = settings.antiAliasing && settings.adaptive && !settings.progressive
+				? new int[settings.imageWidth*settings.imageHeight] : null;
 		}
-		es.shutdown();
 
+		TileScheduler scheduler = new TileScheduler(settings.imageWidth, settings.imageHeight, settings.tileSize);
+		// one worker, with its scratch buffers, per pool thread
+		Map<Thread, RayTracingWorker> workers = new ConcurrentHashMap<>();
+		int passCount = settings.progressive ? Math.max(1, settings.numOfSamples) : 1;
+		metrics.start(scheduler.getTileCount() * passCount);
+		ScheduledExecutorService reporter = startMetricsReporter();
+
+		if (!settings.quiet)
+			System.out.print("Rendering");
+		boolean complete = false;
 		try {
-			es.awaitTermination(10, TimeUnit.MINUTES);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			if (settings.progressive) {
+				renderProgressively(pool, scheduler, workers);
+			}
+			else {
+				pool.invoke(scheduler.newTask((x0, y0, x1, y1) -> {
+					if (halt)
+						return;
+					getWorker(workers).renderTile(x0, y0, x1, y1);
+					// a tile stopped by halt between its rows isn't done
+					if (!halt)
+						printProgress(metrics.tileFinished(), scheduler.getTileCount());
+				}));
+			}
+			complete = !halt;
+		} finally {
+			finishFootprint(complete);
+			metrics.finish();
+			if (reporter != null)
+				reporter.shutdownNow();
 		}
 
+		if (settings.quiet)
+			return;
 		System.out.println();
+		if (settings.progressive) {
+			System.out.println("Accumulated " + passes + " samples per pixel.");
+		}
+		if (sampleCounts != null) {
+			long samples = 0;
+			for (int count : sampleCounts)
+				samples += count;
+			System.out.printf("Took %.2f samples per pixel on average.%n", samples / (double) sampleCounts.length);
+		}
 		long endTime = System.currentTimeMillis();
 		Long renderTime = endTime - startTime;
 		System.out.println("Finished rendering scene in " + renderTime.toString() + " milliseconds.");
+		System.out.println(settings.metricsJson ? metrics.getJson() : metrics.toText());
+	}
+
+	/**
+	  * Traces only the stale pixels again if the camera is the one the
+	  * footprint was taken with, otherwise all of them with a new footprint.
+	  */
+	private synchronized void startFootprint() {
+		boolean incremental = settings.incremental && !settings.progressive;
+		if (incremental && stale != null && footprintCamera == scene.camera) {
+			retrace = stale;
+		}
+		else {
+			retrace = null;
+			footprint = incremental ? new Footprint(settings.imageWidth, settings.imageHeight) : null;
+		}
+		stale = null;
+		rendering = true;
+		editedWhileRendering = false;
+	}
+
+	/**
+	  * Keeps the footprint of a complete render. A halted or failed render
+	  * leaves pixels without one, and an edit during the render pixels the
+	  * footprint doesn't cover, so the next render traces all of them.
+	  */
+	private synchronized void finishFootprint(boolean complete) {
+		rendering = false;
+		if (footprint == null || !complete || editedWhileRendering) {
+			footprint = null;
+			return;
+		}
+		footprintCamera = scene.camera;
+		stale = new BitSet();
+	}
+
+	/**
+	  * Call after adding the primitive to the scene. If the last render took
+	  * a footprint, the next one traces only the pixels the primitive can
+	  * change. The next render builds the acceleration structure again.
+	  */
+	public synchronized void primitiveAdded(Primitive primitive) {
+		if (rendering)
+			editedWhileRendering = true;
+		else if (stale != null)
+			footprint.addPixelsReaching(primitive.shape, footprintCamera, stale);
+	}
+
+	/**
+	  * Call after changing the background colour of the scene settings. If the
+	  * last render took a footprint, the next one traces only the pixels that
+	  * show the background.
+	  */
+	public synchronized void backgroundChanged() {
+		if (rendering)
+			editedWhileRendering = true;
+		else if (stale != null)
+			footprint.addBackgroundPixels(stale);
+	}
+
+	/**
+	  * Prints the metrics every metricsInterval seconds on a daemon thread,
+	  * returns null if the interval is 0.
+	  */
+	private ScheduledExecutorService startMetricsReporter() {
+		if (settings.metricsInterval <= 0)
+			return null;
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "render-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> System.out.println(settings.metricsJson ? metrics.getJson() : metrics.toText()),
+			settings.metricsInterval, settings.metricsInterval, TimeUnit.SECONDS);
+		return reporter;
+	}
+
+	/**
+	  * Renders the image in passes of one sample per pixel, painting the
+	  * running average after every tile. Stops at a pass boundary after
+	  * numOfSamples passes, once a pass changes the image by less than
+	  * convergenceThreshold (root mean square over all channels), or on halt.
+	  */
+	private void renderProgressively(ForkJoinPool pool, TileScheduler scheduler,
+			Map<Thread, RayTracingWorker> workers) {
+		int pixels = settings.imageWidth * settings.imageHeight;
+		accumulation = new float[pixels*3];
+		DoubleAdder change = new DoubleAdder();
+
+		for (passes = 0; passes < settings.numOfSamples && !halt; ) {
+			int pass = passes;
+			change.reset();
+			pool.invoke(scheduler.newTask((x0, y0, x1, y1) -> {
+				if (halt)
+					return;
+				change.add(getWorker(workers).accumulateTile(x0, y0, x1, y1, pass));
+				if (!halt)
+					metrics.tileFinished();
+			}));
+			if (halt)
+				break;
+			passes++;
+			if (!settings.quiet)
+				System.out.print('.');
+
+			double rms = Math.sqrt(change.sum() / (pixels*3));
+			if (pass > 0 && rms < settings.convergenceThreshold)
+				break;
+		}
+	}
+
+	/**
+	  * Builds the camera and the acceleration structure the workers share,
+	  * unless the tracer has one, given or from its last render, or the scene
+	  * was loaded with one, of the same primitives.
+	  */
+	void prepare() {
+		scene.camera.build(settings.imageWidth, settings.imageHeight);
+		if (accelerator != null && !accelerator.isFor(scene.primitives))
+			accelerator = null;
+		if (accelerator == null && scene.accelerator != null && scene.accelerator.isFor(scene.primitives))
+			accelerator = scene.accelerator;
+		if (accelerator == null)
+			accelerator = new Accelerator(scene.primitives);
+		metrics = new RenderMetrics();
+		sampleLimit = shadowRayLimit = Integer.MAX_VALUE;
+		fewestSamples.set(Integer.MAX_VALUE);
+		fewestShadowRays.set(Integer.MAX_VALUE);
+	}
+
+	/**
+	  * Notes the quality a tile is rendered with.
+	  */
+	void tileQuality(int samples, int shadowRays) {
+		if (samples < fewestSamples.get())
+			fewestSamples.accumulateAndGet(samples, Math::min);
+		if (shadowRays < fewestShadowRays.get())
+			fewestShadowRays.accumulateAndGet(shadowRays, Math::min);
+	}
+
+	/**
+	  * The fewest samples per pixel any tile of the last render took, or
+	  * numOfSamples if no tile was rendered.
+	  */
+	int getFewestSamples() {
+		return Math.min(settings.numOfSamples, fewestSamples.get());
+	}
+
+	int getFewestShadowRays() {
+		return Math.min(scene.settings.shadowRaysNum, fewestShadowRays.get());
+	}
+
+	/**
+	  * The worker of the calling pool thread, created on its first tile.
+	  */
+	private RayTracingWorker getWorker(Map<Thread, RayTracingWorker> workers) {
+		return workers.computeIfAbsent(Thread.currentThread(), thread -> new RayTracingWorker(this));
+	}
+
+	/**
+	  * Prints a dot for every 60th of the tiles.
+	  */
+	private void printProgress(int done, int tileCount) {
+		if (settings.quiet)
+			return;
+		// exactly one thread sees each 60th of the image complete
+		if ((done * 60) / tileCount > ((done - 1) * 60) / tileCount) {
+			System.out.print('.');
+		}
 	}
 
 	public Camera getCamera(){
 		return scene.camera;
 	}
 	
+	public RenderMetrics getMetrics(){
+		return metrics;
+	}
+
 	public SceneSettings getSettings(){
 		return scene.settings;
 	}
 	
 	public void paintPixel(int x, int y, Color pixelColor) {
-		getImage().setRGB(x, y, pixelColor.getRGB());
+		paintPixel(x, y, pixelColor.getRGB());
+	}
+
+	public void paintPixel(int x, int y, int rgb) {
+		frameBuffer.setPixel(x, y, rgb);
 	}
 
 	//////////////////////// FUNCTIONS TO SAVE IMAGES IN PNG FORMAT //////////////////////////////////////////
@@ -285,8 +420,43 @@ public class RayTracer {
 		}
 	}
 
+/**
+  * Grey scale image of the samples taken per pixel by adaptive anti-aliasing,
+  * white at numOfSamples. Null unless the last render was adaptive.
+  */
+	public BufferedImage getSampleCountImage() {
+		if (sampleCounts == null)
+			return null;
+		int width = settings.imageWidth;
+		int height = settings.imageHeight;
+		BufferedImage counts = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		double max = Math.max(1, settings.numOfSamples);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double level = sampleCounts[x + y*width] / max;
+				counts.setRGB(x, y, Color.toRGB(level, level, level));
+			}
+		}
+		return counts;
+	}
+
+	public void saveSampleCountImage(String fileName) {
+		BufferedImage counts = getSampleCountImage();
+		if (counts == null)
+			return;
+		try {
+			ImageIO.write(counts, "png", new File(fileName));
+		} catch (IOException e) {
+			System.out.println("ERROR SAVING FILE: " + e.getMessage());
+		}
+	}
+
+	FrameBuffer getFrameBuffer() {
+		return frameBuffer;
+	}
+
 	public BufferedImage getImage() {
-	return image;
+	return frameBuffer.getImage();
 }
 
 	@SuppressWarnings("serial")
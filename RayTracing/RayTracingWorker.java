@@ -1,207 +1,721 @@
 package RayTracing;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Random;
 
-class RayTracingWorker implements Runnable {
+/**
+ * Renders tiles of the image on one thread. Rays are passed around as their
+ * origin and unit direction components, and all intermediate results live in
+ * scratch buffers owned by the worker, so tracing a pixel doesn't allocate.
+ */
+class RayTracingWorker {
+	// fields of a frame of the iterative tracer: the direction and weight of
+	// the level's ray, the scales of its branches and the reflected colour
+	private static final int DX = 0, DY = 1, DZ = 2, WEIGHT = 3,
+		REFLECTION_SCALE = 4, TRANSPARENCY_SCALE = 5, REFLECTION = 6, FRAME = 9;
+	// stages of a frame: its reflection ray is next, then its transparency
+	// ray, then its colour is complete
+	private static final int REFLECT = 0, TRANSMIT = 1, DONE = 2;
+
 	private final RayTracer tracer;
+	private final Accelerator.Query query;
+	private final Sampler sampler;
+	private final RenderMetrics.Worker counters;
+
+	private final double[] cameraRay = new double[6];
+	private final RayPacket packet = new RayPacket();
+	private final double[] pixel = new double[3];
+	// colours of RayPacket.HEIGHT rows of a tile, copied to the frame buffer at once
+	private final int[] rows;
+	// one hit and one colour per recursion level
+	private final Hit[] hits;
+	private final double[][] colors;
+	// the stack of the iterative tracer, one frame and one stage per level
+	private final double[] frames;
+	private final int[] stages;
+	// sample points on the area of a light, 3 coordinates each
+	private final double[] lightGrid;
+	private final double[] lightRectangle = new double[9];
+	// samples per pixel and shadow rays per light side of the current tile,
+	// the settings as lowered by the tracer's limits
+	private int samples, shadowRays;
+	// with a footprint, the bounds of the ray segments of the current pixel
+	// and the Footprint flags of what its rays saw
+	private boolean recording;
+	private double minX, minY, minZ, maxX, maxY, maxZ;
+	private int seen;
 
     RayTracingWorker(RayTracer tracer) {
     	this.tracer = tracer;
+    	query = tracer.accelerator.newQuery();
+    	sampler = Sampler.create(tracer.settings.sampler, tracer.settings.seed);
+    	counters = tracer.metrics.newWorker();
+    	rows = new int[Math.max(1, tracer.settings.tileSize)*RayPacket.HEIGHT];
+
+    	int levels = tracer.settings.maxRecursionLevel + 1;
+    	hits = new Hit[levels];
+    	colors = new double[levels][3];
+    	for (int i = 0; i < levels; i++) {
+    		hits[i] = new Hit();
+    	}
+    	frames = new double[levels*FRAME];
+    	stages = new int[levels];
+
+    	SceneSettings sceneSettings = tracer.getSettings();
+    	int cells = Math.max(sceneSettings.shadowRaysNum, sceneSettings.shadowProbesNum);
+    	lightGrid = new double[cells*cells*3];
     }
 
-    @Override
-    public void run() {
-		int imageHeight = tracer.settings.imageHeight;
-		int imageWidth  = tracer.settings.imageWidth;
+    void renderTile(int x0, int y0, int x1, int y1) {
+		long start = System.nanoTime();
+		startTile();
+		if (tracer.settings.packets && !tracer.settings.antiAliasing && !recording) {
+			renderTileInPackets(x0, y0, x1, y1);
+		}
+		else {
+			renderTileByPixel(x0, y0, x1, y1);
+		}
+		flushCounters(start);
+    }
 
-		while (true) {
-			int x = tracer.curColumn.getAndIncrement();
+	/**
+	 * Takes the quality limits in force as the tile starts, so that a tile is
+	 * rendered at one quality throughout.
+	 */
+	private void startTile() {
+		samples = Math.min(tracer.settings.numOfSamples, tracer.sampleLimit);
+		shadowRays = Math.min(tracer.getSettings().shadowRaysNum, tracer.shadowRayLimit);
+		tracer.tileQuality(samples, shadowRays);
+		recording = tracer.footprint != null;
+	}
 
-			if (x >= imageWidth || tracer.halt) {
-				return;
+	private void renderTileByPixel(int x0, int y0, int x1, int y1) {
+		BitSet retrace = tracer.retrace;
+		for (int y = y0; y < y1 && !tracer.halt; y++) {
+			for (int x = x0; x < x1; x++) {
+				if (retrace != null && !retrace.get(x + y*tracer.settings.imageWidth)) {
+					rows[x - x0] = tracer.getFrameBuffer().getPixel(x, y);
+					continue;
+				}
+				if (recording) {
+					minX = minY = minZ = Double.POSITIVE_INFINITY;
+					maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+					seen = 0;
+				}
+				int samples = getPixelColor(x, y, pixel);
+				if (recording)
+					tracer.footprint.set(x, y, minX, minY, minZ, maxX, maxY, maxZ, seen);
+				rows[x - x0] = Color.toRGB(pixel[0], pixel[1], pixel[2]);
+				if (tracer.sampleCounts != null)
+					tracer.sampleCounts[x + y*tracer.settings.imageWidth] = samples;
 			}
+			tracer.getFrameBuffer().setRow(x0, y, rows, 0, x1 - x0);
+		}
+	}
 
-			x = tracer.shuffledArray.get(x);
+	private void flushCounters(long start) {
+		counters.intersectionTests += query.intersectionTests;
+		counters.occluderHits += query.occluderHits;
+		counters.occluderMisses += query.occluderMisses;
+		query.intersectionTests = query.occluderHits = query.occluderMisses = 0;
+		tracer.metrics.add(counters, System.nanoTime() - start);
+	}
 
-			for (int y = 0; y < imageHeight; y++) {
-				Color color = getPixelColor(x, y);
-				tracer.paintPixel(x, y, color);
+	/**
+	 * Renders the tile one sample per pixel, finding the primary hits of
+	 * blocks of RayPacket.WIDTH x RayPacket.HEIGHT pixels together. Shading and
+	 * secondary rays go ray by ray.
+	 */
+	private void renderTileInPackets(int x0, int y0, int x1, int y1) {
+		int width = x1 - x0;
+		double epsilon = RayTracer.EPSILON;
+		for (int y = y0; y < y1 && !tracer.halt; y += RayPacket.HEIGHT) {
+			int packetRows = Math.min(RayPacket.HEIGHT, y1 - y);
+			for (int x = x0; x < x1; x += RayPacket.WIDTH) {
+				int packetColumns = Math.min(RayPacket.WIDTH, x1 - x);
+				tracer.getCamera().getPacketRays(x, y, packetColumns, packetRows, packet);
+				for (int r = 0; r < packet.size; r++) {
+					packet.ox[r] += packet.dx[r]*epsilon;
+					packet.oy[r] += packet.dy[r]*epsilon;
+					packet.oz[r] += packet.dz[r]*epsilon;
+				}
+				query.getClosestHits(packet);
+				counters.primaryRays += packet.size;
+
+				for (int r = 0; r < packet.size; r++) {
+					int i = r % packetColumns;
+					int j = r / packetColumns;
+					sampler.startSample(x + i, y + j, 0, 1);
+					shadePacketRay(r, pixel);
+					rows[j*width + x - x0 + i] = Color.toRGB(pixel[0], pixel[1], pixel[2]);
+				}
 			}
-			if ( (x * 60) / imageWidth > tracer.progress ) {
-				tracer.progress++;
-				System.out.print('.');
+			for (int j = 0; j < packetRows; j++) {
+				tracer.getFrameBuffer().setRow(x0, y + j, rows, j*width, width);
 			}
 		}
-    }
+	}
 
-    private Color getPixelColor(int x, int y) {
+	private void shadePacketRay(int r, double[] rgb) {
+		Primitive closest = packet.closest[r];
+		if (closest == null || tracer.settings.maxRecursionLevel == 0) {
+			setBackground(rgb);
+			return;
+		}
+		Hit hit = hits[0];
+		hit.set(closest, packet.dist[r], packet.ox[r], packet.oy[r], packet.oz[r],
+			packet.dx[r], packet.dy[r], packet.dz[r]);
+		if (tracer.settings.recursiveTracing) {
+			shade(hit, packet.dx[r], packet.dy[r], packet.dz[r], 0, 1, rgb);
+		}
+		else {
+			shadeIteratively(packet.dx[r], packet.dy[r], packet.dz[r], rgb);
+		}
+	}
+
+	/**
+	 * Adds one sample per pixel of the tile to the tracer's accumulation
+	 * buffer and paints the new averages. The first pass samples the pixel
+	 * corner like a render without anti-aliasing, later passes jitter inside
+	 * the pixel if anti-aliasing is on. Returns the sum of the squared
+	 * changes of the averages.
+	 */
+	double accumulateTile(int x0, int y0, int x1, int y1, int pass) {
+		long start = System.nanoTime();
+		startTile();
+		float[] accumulation = tracer.accumulation;
+		int width = tracer.settings.imageWidth;
+		boolean jitter = pass > 0 && tracer.settings.antiAliasing;
+		double change = 0;
+
+		for (int y = y0; y < y1 && !tracer.halt; y++) {
+			for (int x = x0; x < x1; x++) {
+				sampler.startSample(x, y, pass, tracer.settings.numOfSamples);
+				double sampleX = x + (jitter ? sampler.next() : 0);
+				double sampleY = y + (jitter ? sampler.next() : 0);
+				traceCameraRay(sampleX, sampleY, pixel);
+
+				int i = (x + y*width)*3;
+				for (int c = 0; c < 3; c++) {
+					double previous = pass > 0 ? accumulation[i+c] / pass : 0;
+					accumulation[i+c] += (float) pixel[c];
+					double current = accumulation[i+c] / (pass+1);
+					change += (current-previous)*(current-previous);
+					pixel[c] = current;
+				}
+				rows[x - x0] = Color.toRGB(pixel[0], pixel[1], pixel[2]);
+			}
+			tracer.getFrameBuffer().setRow(x0, y, rows, 0, x1 - x0);
+		}
+		flushCounters(start);
+		return change;
+	}
+
+	/**
+	 * Writes the colour of the pixel into rgb and returns the number of
+	 * samples taken.
+	 */
+	int getPixelColor(int x, int y, double[] rgb) {
 		if (!tracer.settings.antiAliasing) {
-			Ray ray = tracer.getCamera().getRayByPixelCoordinate(x, y);
-			return traceRay(ray, 0);
+			sampler.startSample(x, y, 0, 1);
+			traceCameraRay(x, y, rgb);
+			return 1;
+		}
+		else if (tracer.settings.adaptive) {
+			return getAdaptivePixelColor(x, y, rgb);
 		}
 		else {
-			int multiplier = tracer.settings.numOfSamples;
-			Random r = new Random();
+			int multiplier = samples;
 			double red = 0;
 			double green = 0;
 			double blue = 0;
 
 			for (int i = 0; i < multiplier; i++) {
-				double randX = x + r.nextDouble();
-				double randY = y + r.nextDouble();
-				Ray ray = tracer.getCamera().getRayByPixelCoordinate(randX, randY);
-				Color color = traceRay(ray, 0);
-				red   += color.getR();
-				green += color.getG();
-				blue  += color.getB();
+				sampler.startSample(x, y, i, multiplier);
+				double randX = x + sampler.next();
+				double randY = y + sampler.next();
+				traceCameraRay(randX, randY, rgb);
+				red   += rgb[0];
+				green += rgb[1];
+				blue  += rgb[2];
 			}
-			red   /= multiplier;
-			green /= multiplier;
-			blue  /= multiplier;
+			rgb[0] = red   / multiplier;
+			rgb[1] = green / multiplier;
+			rgb[2] = blue  / multiplier;
+			return multiplier;
+		}
+	}
 
-			return new Color(red, green, blue);
+	/**
+	 * Samples the pixel at random points until the standard error of the mean
+	 * of every channel is below the adaptive threshold, taking at least
+	 * minSamples and at most numOfSamples samples, or the tile's limit.
+	 */
+	private int getAdaptivePixelColor(int x, int y, double[] rgb) {
+		RenderSettings settings = tracer.settings;
+		int maxSamples = Math.max(1, samples);
+		int minSamples = Math.max(2, Math.min(settings.minSamples, maxSamples));
+		double threshold = settings.adaptiveThreshold;
+
+		// running means and sums of squared deviations (Welford)
+		double meanR = 0, meanG = 0, meanB = 0;
+		double m2R = 0, m2G = 0, m2B = 0;
+		int n = 0;
+		while (n < maxSamples) {
+			sampler.startSample(x, y, n, maxSamples);
+			traceCameraRay(x + sampler.next(), y + sampler.next(), rgb);
+			n++;
+			double deltaR = rgb[0] - meanR;
+			double deltaG = rgb[1] - meanG;
+			double deltaB = rgb[2] - meanB;
+			meanR += deltaR / n;
+			meanG += deltaG / n;
+			meanB += deltaB / n;
+			m2R += deltaR*(rgb[0] - meanR);
+			m2G += deltaG*(rgb[1] - meanG);
+			m2B += deltaB*(rgb[2] - meanB);
+
+			if (n >= minSamples) {
+				// variance of the mean is the sample variance over n
+				double variance = Math.max(m2R, Math.max(m2G, m2B)) / ((n - 1)*(double) n);
+				if (variance <= threshold*threshold)
+					break;
+			}
 		}
+		rgb[0] = meanR;
+		rgb[1] = meanG;
+		rgb[2] = meanB;
+		return n;
 	}
 
-	private Color traceRay(Ray ray, int iteration) {
-		Hit closestHit = getClosestHit(ray.moveOriginAlongRay(RayTracer.EPSILON));
+	private void traceCameraRay(double x, double y, double[] rgb) {
+		double[] ray = cameraRay;
+		tracer.getCamera().getRayByPixelCoordinate(x, y, ray);
+		counters.primaryRays++;
+		if (tracer.settings.recursiveTracing) {
+			traceRay(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], 0, 1, rgb);
+		}
+		else if (findHit(0, ray[0], ray[1], ray[2], ray[3], ray[4], ray[5])) {
+			shadeIteratively(ray[3], ray[4], ray[5], rgb);
+		}
+		else {
+			setBackground(rgb);
+		}
+	}
 
-		if (closestHit == null || iteration == tracer.settings.maxRecursionLevel) {
-			return tracer.getSettings().background;
+	/**
+	 * Writes the colour seen along the ray into rgb. Channels are clamped to 1
+	 * wherever the Color class would clamp them. The weight is the most the
+	 * colour can add to the pixel, see getBranchScale.
+	 */
+	private void traceRay(double ox, double oy, double oz,
+			double dx, double dy, double dz, int iteration, double weight, double[] rgb) {
+		Hit hit = hits[iteration];
+		double epsilon = RayTracer.EPSILON;
+		boolean found = query.getClosestHit(
+				ox + dx*epsilon, oy + dy*epsilon, oz + dz*epsilon, dx, dy, dz, hit);
+		if (recording)
+			record(iteration, found);
+
+		if (!found || iteration == tracer.settings.maxRecursionLevel) {
+			setBackground(rgb);
+			return;
 		}
+		shade(hit, dx, dy, dz, iteration, weight, rgb);
+	}
 
-		Color baseColor = Color.BLACK;
-		for (Light light : tracer.scene.lights) {
-			Ray shadowRay = Ray.createRayByTwoPoints(
-				light.position,
-				closestHit.intersection);
+	/**
+	 * Casts the ray of the given level into hits[level], and tells if its hit
+	 * is to be shaded. Past the last level the background is seen instead.
+	 */
+	private boolean findHit(int level, double ox, double oy, double oz, double dx, double dy, double dz) {
+		double epsilon = RayTracer.EPSILON;
+		boolean found = query.getClosestHit(
+				ox + dx*epsilon, oy + dy*epsilon, oz + dz*epsilon, dx, dy, dz, hits[level]);
+		if (recording)
+			record(level, found);
+		return found && level != tracer.settings.maxRecursionLevel;
+	}
 
-			double illumination = getIlluminationLevel(shadowRay, light, closestHit.intersection);
-			double occlusion    = 1 - illumination;
-			double lightIntensity = 1-light.shadow;
+	/**
+	 * Adds the ray of the given level to the footprint of the pixel. Its
+	 * origin, a hit of the level above, is in already; primary rays go
+	 * from the camera and only their hits are.
+	 */
+	private void record(int level, boolean found) {
+		if (!found) {
+			seen |= Footprint.BACKGROUND | (level == 0 ? 0 : Footprint.SECONDARY_ESCAPED);
+			return;
+		}
+		Hit hit = hits[level];
+		extendFootprint(hit.x, hit.y, hit.z);
+		if (level == tracer.settings.maxRecursionLevel)
+			seen |= Footprint.BACKGROUND;
+	}
 
-			Color lightColor = light.color;
-			Color diffuse    = getDiffuse(closestHit, shadowRay);
-			Color specular   = getSpecular(closestHit, shadowRay, light, ray);
+	private void extendFootprint(double x, double y, double z) {
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		minZ = Math.min(minZ, z);
+		maxX = Math.max(maxX, x);
+		maxY = Math.max(maxY, y);
+		maxZ = Math.max(maxZ, z);
+	}
 
-			baseColor = baseColor.add(diffuse.add(specular).
-					multiply(lightColor).
-					scale(illumination+occlusion*lightIntensity));
+	/**
+	 * Writes the colour of the hit in hits[0] of a ray with direction
+	 * (dx, dy, dz) into rgb, like shade but without recursion.
+	 *
+	 * Each level keeps its ray and the state of its two branches in a frame
+	 * on the stack, and its colour, from the base colour on, in colors[level].
+	 * A level sends its reflection ray and then its transparency ray one
+	 * level down, and once both have come back combines their colours into
+	 * its own and returns to the level above. Rays are cast, samples drawn
+	 * and colours added in the same order as the recursion does, so both
+	 * give the same image.
+	 */
+	private void shadeIteratively(double dx, double dy, double dz, double[] rgb) {
+		double[] frames = this.frames;
+		int[] stages = this.stages;
+		int level = 0;
+		pushFrame(0, dx, dy, dz, 1);
+		while (true) {
+			Hit hit = hits[level];
+			Material material = hit.primitive.material;
+			double[] color = colors[level];
+			// levels at the recursion limit are never shaded, so there is a next one
+			double[] child = colors[level + 1];
+			int f = level*FRAME;
+
+			if (stages[level] == REFLECT) {
+				stages[level] = TRANSMIT;
+				Color reflection = material.reflection;
+				double weight = frames[f + WEIGHT]*Math.max(reflection.getR(), Math.max(reflection.getG(), reflection.getB()));
+				double scale = weight > 0 ? getBranchScale(weight) : 0;
+				frames[f + REFLECTION_SCALE] = scale;
+				if (scale != 0) {
+					double rdx = frames[f + DX], rdy = frames[f + DY], rdz = frames[f + DZ];
+					double dot = 2*(rdx*hit.nx + rdy*hit.ny + rdz*hit.nz);
+					rdx -= hit.nx*dot;
+					rdy -= hit.ny*dot;
+					rdz -= hit.nz*dot;
+					counters.reflectionRays++;
+					if (findHit(level + 1, hit.x, hit.y, hit.z, rdx, rdy, rdz)) {
+						pushFrame(++level, rdx, rdy, rdz, weight*scale);
+					}
+					else {
+						setBackground(child);
+					}
+				}
+			}
+			else if (stages[level] == TRANSMIT) {
+				stages[level] = DONE;
+				double scale = frames[f + REFLECTION_SCALE];
+				if (scale != 0) {
+					Color reflection = material.reflection;
+					frames[f + REFLECTION] = reflection.getR()*child[0]*scale;
+					frames[f + REFLECTION + 1] = reflection.getG()*child[1]*scale;
+					frames[f + REFLECTION + 2] = reflection.getB()*child[2]*scale;
+				}
+				else {
+					frames[f + REFLECTION] = frames[f + REFLECTION + 1] = frames[f + REFLECTION + 2] = 0;
+				}
+
+				double transparency = material.trans;
+				scale = transparency != 0 ? getBranchScale(frames[f + WEIGHT]*transparency) : 0;
+				frames[f + TRANSPARENCY_SCALE] = scale;
+				if (scale != 0) {
+					double tdx = frames[f + DX], tdy = frames[f + DY], tdz = frames[f + DZ];
+					counters.transparencyRays++;
+					if (findHit(level + 1, hit.x, hit.y, hit.z, tdx, tdy, tdz)) {
+						pushFrame(++level, tdx, tdy, tdz, frames[f + WEIGHT]*transparency*scale);
+					}
+					else {
+						setBackground(child);
+					}
+				}
+			}
+			else {
+				double transparency = material.trans;
+				double opacity = 1-transparency;
+				double scale = frames[f + TRANSPARENCY_SCALE];
+				double transparencyR = 0, transparencyG = 0, transparencyB = 0;
+				if (scale != 0) {
+					transparencyR = child[0]*scale;
+					transparencyG = child[1]*scale;
+					transparencyB = child[2]*scale;
+				}
+				color[0] = Math.min(1, transparencyR*transparency + color[0]*opacity + frames[f + REFLECTION]);
+				color[1] = Math.min(1, transparencyG*transparency + color[1]*opacity + frames[f + REFLECTION + 1]);
+				color[2] = Math.min(1, transparencyB*transparency + color[2]*opacity + frames[f + REFLECTION + 2]);
+				if (level == 0)
+					break;
+				level--;
+			}
 		}
+		rgb[0] = colors[0][0];
+		rgb[1] = colors[0][1];
+		rgb[2] = colors[0][2];
+	}
+
+	/**
+	 * Starts the frame of a ray with direction (dx, dy, dz) and the given
+	 * weight whose hit is in hits[level], with the base colour of the hit.
+	 */
+	private void pushFrame(int level, double dx, double dy, double dz, double weight) {
+		int f = level*FRAME;
+		frames[f + DX] = dx;
+		frames[f + DY] = dy;
+		frames[f + DZ] = dz;
+		frames[f + WEIGHT] = weight;
+		stages[level] = REFLECT;
+		setBaseColor(hits[level], dx, dy, dz, colors[level]);
+	}
+
+	/**
+	 * Factor to scale a reflection or transparency ray of the given weight
+	 * by: 1 to trace it, 0 to cut it, and with Russian roulette 1/p for rays
+	 * below the weight limit that go on with probability p, which keeps the
+	 * expected colour of the pixel (but for clamping).
+	 */
+	private double getBranchScale(double weight) {
+		double minWeight = tracer.settings.minRayWeight;
+		if (weight >= minWeight)
+			return 1;
+		if (!tracer.settings.russianRoulette)
+			return 0;
+		double p = weight / minWeight;
+		return sampler.next() < p ? 1/p : 0;
+	}
+
+	private void setBackground(double[] rgb) {
+		Color background = tracer.getSettings().background;
+		rgb[0] = background.getR();
+		rgb[1] = background.getG();
+		rgb[2] = background.getB();
+	}
+
+	/**
+	 * Writes the colour of the hit of a ray with direction (dx, dy, dz) and
+	 * the given weight at the given recursion level into rgb.
+	 */
+	private void shade(Hit hit, double dx, double dy, double dz, int iteration, double weight, double[] rgb) {
+		Material material = hit.primitive.material;
+		setBaseColor(hit, dx, dy, dz, rgb);
+
+		double[] child = colors[iteration + 1];
 
 		//reflection
-		Color reflectionColor = Color.BLACK;
-		if (!closestHit.getReflectColor().equals(Color.BLACK)){
-			Vector reflection = ray.dir.getReflectionAroundNormal(closestHit.normal);
-			Ray reflectionRay = new Ray(closestHit.intersection, reflection);
-			reflectionColor = closestHit.getReflectColor().multiply(traceRay(reflectionRay, iteration + 1));
+		double reflectionR = 0, reflectionG = 0, reflectionB = 0;
+		Color reflection = material.reflection;
+		double reflectionWeight = weight*Math.max(reflection.getR(), Math.max(reflection.getG(), reflection.getB()));
+		double reflectionScale = reflectionWeight > 0 ? getBranchScale(reflectionWeight) : 0;
+		if (reflectionScale != 0){
+			double dot = 2*(dx*hit.nx + dy*hit.ny + dz*hit.nz);
+			counters.reflectionRays++;
+			traceRay(hit.x, hit.y, hit.z,
+				dx - hit.nx*dot, dy - hit.ny*dot, dz - hit.nz*dot,
+				iteration + 1, reflectionWeight*reflectionScale, child);
+			reflectionR = reflection.getR()*child[0]*reflectionScale;
+			reflectionG = reflection.getG()*child[1]*reflectionScale;
+			reflectionB = reflection.getB()*child[2]*reflectionScale;
 		}
 
 		//transparency
-		Color transparencyColor = Color.BLACK;
-		double transparency = closestHit.getTransparency();
+		double transparency = material.trans;
 		double opacity = 1-transparency;
-		if (transparency != 0) {
-			Ray transRay = new Ray(closestHit.intersection, ray.dir);
-			transparencyColor = traceRay(transRay, iteration + 1);
+		double transparencyR = 0, transparencyG = 0, transparencyB = 0;
+		double transparencyScale = transparency != 0 ? getBranchScale(weight*transparency) : 0;
+		if (transparencyScale != 0) {
+			counters.transparencyRays++;
+			traceRay(hit.x, hit.y, hit.z, dx, dy, dz, iteration + 1, weight*transparency*transparencyScale, child);
+			transparencyR = child[0]*transparencyScale;
+			transparencyG = child[1]*transparencyScale;
+			transparencyB = child[2]*transparencyScale;
 		}
 
-		return Color.sum(
-				transparencyColor.scale(transparency),
-				baseColor.scale(opacity),
-				reflectionColor);
+		rgb[0] = Math.min(1, transparencyR*transparency + rgb[0]*opacity + reflectionR);
+		rgb[1] = Math.min(1, transparencyG*transparency + rgb[1]*opacity + reflectionG);
+		rgb[2] = Math.min(1, transparencyB*transparency + rgb[2]*opacity + reflectionB);
 	}
 
-	private Hit getClosestHit(Ray ray) {
-		Hit closestHit = null;
-		double minDist = Double.MAX_VALUE;
+	/**
+	 * Writes the colour the lights give the hit of a ray with direction
+	 * (dx, dy, dz), before reflection and transparency, into base.
+	 */
+	private void setBaseColor(Hit hit, double dx, double dy, double dz, double[] base) {
+		Material material = hit.primitive.material;
+		double baseR = 0, baseG = 0, baseB = 0;
+		List<Light> lights = tracer.scene.lights;
+		for (int l = 0; l < lights.size(); l++) {
+			Light light = lights.get(l);
+
+			// shadow ray from the light to the intersection
+			double sx = hit.x - light.position.x;
+			double sy = hit.y - light.position.y;
+			double sz = hit.z - light.position.z;
+			double norm = Math.sqrt(sx*sx + sy*sy + sz*sz);
+			sx /= norm;
+			sy /= norm;
+			sz /= norm;
+
+			double illumination = getIlluminationLevel(l, sx, sy, sz, light, hit);
+			double occlusion    = 1 - illumination;
+			double lightIntensity = 1-light.shadow;
 
-		for (Primitive primitive : tracer.scene.primitives) {
-			Hit hit = primitive.getHit(ray);
+			double diffuse  = getDiffuse(hit, sx, sy, sz);
+			double specular = 0;
+			if (!material.specular.equals(Color.BLACK))
+				specular = getSpecular(l, hit, sx, sy, sz, light, dx, dy, dz);
 
-			if (hit != null && hit.dist < minDist) {
-				closestHit = hit;
-				minDist = hit.dist;
-			}
+			double scale = illumination+occlusion*lightIntensity;
+			Color lightColor = light.color;
+			baseR = Math.min(1, baseR + Math.min(1, material.diffuse.getR()*diffuse + Math.min(1, material.specular.getR()*specular)) * lightColor.getR()*scale);
+			baseG = Math.min(1, baseG + Math.min(1, material.diffuse.getG()*diffuse + Math.min(1, material.specular.getG()*specular)) * lightColor.getG()*scale);
+			baseB = Math.min(1, baseB + Math.min(1, material.diffuse.getB()*diffuse + Math.min(1, material.specular.getB()*specular)) * lightColor.getB()*scale);
 		}
 
-		return closestHit;
+		base[0] = baseR;
+		base[1] = baseG;
+		base[2] = baseB;
 	}
 
-	private double getIlluminationLevel(Ray shadowRay, Light light, Vector intersection){
-		Vector[] grid = getLightGrid(shadowRay, light);
+	/**
+	 * Fraction of the light's area that is visible from the hit, where
+	 * (sx, sy, sz) is the unit direction from the light to the hit.
+	 *
+	 * A coarse grid of shadowProbesNum rays per side is cast first. If they
+	 * all see the same, the hit is taken to be fully lit or in umbra and gets
+	 * their exposure. The full grid of shadowRays per side is only cast at
+	 * the first one that differs, in the penumbra.
+	 */
+	private double getIlluminationLevel(int lightIndex, double sx, double sy, double sz, Light light, Hit hit){
+		setLightRectangle(sx, sy, sz, light);
+		SceneSettings settings = tracer.getSettings();
+		int probesNum = settings.shadowProbesNum;
+		if (probesNum > 0 && probesNum < shadowRays) {
+			int probes = getLightGrid(light, probesNum);
+			double first = getExposureLevel(lightIndex, lightGrid[0], lightGrid[1], lightGrid[2], hit);
+			int i = 1;
+			while (i < probes && getExposureLevel(lightIndex, lightGrid[i*3], lightGrid[i*3+1], lightGrid[i*3+2], hit) == first)
+				i++;
+			if (i == probes)
+				return first;
+		}
+
+		int points = getLightGrid(light, shadowRays);
 		double sumExposure=0;
-		for (int i=0; i<grid.length; i++){
-			Ray ray = Ray.createRayByTwoPoints(grid[i], intersection);
-			sumExposure += getExposureLevel(ray, intersection);
+		for (int i=0; i<points; i++){
+			sumExposure += getExposureLevel(lightIndex, lightGrid[i*3], lightGrid[i*3+1], lightGrid[i*3+2], hit);
 		}
-		return sumExposure/(double)grid.length;
+		return sumExposure/(double)points;
 	}
 
-	private Vector[] getLightGrid(Ray ray, Light light){
+	/**
+	 * Sets lightRectangle to a square of the light's width around it,
+	 * perpendicular to the shadow ray: its corner, then unit vectors along
+	 * its two edges.
+	 */
+	private void setLightRectangle(double sx, double sy, double sz, Light light){
 		//construct rectangle
-		Plane plane = ray.getPerpendicularPlaneAtOrigion();
-		Vector edge1 = plane.getRandomDirection();
-		Vector edge2 = edge1.cross(plane.getNormalAtSurfacePoint(null));
-		Vector vertex = Vector.sum(ray.p0, edge1.toLength(-light.width/2), edge2.toLength(-light.width/2));
-
-		int shadowRaysNum = tracer.getSettings().shadowRaysNum;
-		Vector[] grid = new Vector[shadowRaysNum*shadowRaysNum];
-		double tileWidth = light.width/shadowRaysNum;
-		Random r = new Random();
-		for (int i=0; i<shadowRaysNum; i++){
-			for (int j=0; j<shadowRaysNum; j++){
-				double alpha = tileWidth*(i+r.nextDouble());
-				double beta = tileWidth*(j+r.nextDouble());
-				grid[i*shadowRaysNum+j] = Vector.sum(vertex, edge1.toLength(alpha), edge2.toLength(beta));
-			}
-		}
-
-		return grid;
+		double e1x = sampler.next();
+		double e1y = sampler.next();
+		double e1z = -e1x*sx/sz-e1y*sy/sz;
+		double e2x = e1y*sz - e1z*sy;
+		double e2y = e1z*sx - e1x*sz;
+		double e2z = e1x*sy - e1y*sx;
+
+		double norm1 = Math.sqrt(e1x*e1x + e1y*e1y + e1z*e1z);
+		double norm2 = Math.sqrt(e2x*e2x + e2y*e2y + e2z*e2z);
+		e1x /= norm1;
+		e1y /= norm1;
+		e1z /= norm1;
+		e2x /= norm2;
+		e2y /= norm2;
+		e2z /= norm2;
+
+		double halfWidth = light.width/2;
+		double[] r = lightRectangle;
+		r[0] = light.position.x - e1x*halfWidth - e2x*halfWidth;
+		r[1] = light.position.y - e1y*halfWidth - e2y*halfWidth;
+		r[2] = light.position.z - e1z*halfWidth - e2z*halfWidth;
+		r[3] = e1x;
+		r[4] = e1y;
+		r[5] = e1z;
+		r[6] = e2x;
+		r[7] = e2y;
+		r[8] = e2z;
 	}
 
-	private double getExposureLevel(Ray ray, Vector intersection) {
-		double exposure = 1;
-		List<Hit> hits = getOrderedHits(ray);
-		for (Hit hit: hits) {
-			if (exposure == 0 || hit.dist*hit.dist > intersection.distSquared(ray.p0)-RayTracer.EPSILON)
-				break;
-			exposure *= hit.getTransparency();
+	/**
+	 * Fills lightGrid with one jittered point per cell of a grid of cells by
+	 * cells over lightRectangle, and returns the number of points.
+	 */
+	private int getLightGrid(Light light, int cells){
+		double[] r = lightRectangle;
+		double cellWidth = light.width/cells;
+		for (int i=0; i<cells; i++){
+			for (int j=0; j<cells; j++){
+				double alpha = cellWidth*(i+sampler.next());
+				double beta = cellWidth*(j+sampler.next());
+				int p = (i*cells+j)*3;
+				lightGrid[p]   = r[0] + r[3]*alpha + r[6]*beta;
+				lightGrid[p+1] = r[1] + r[4]*alpha + r[7]*beta;
+				lightGrid[p+2] = r[2] + r[5]*alpha + r[8]*beta;
+			}
 		}
-		return exposure;
+		return cells*cells;
 	}
 
-	private List<Hit> getOrderedHits(Ray shadowRay){
-		List<Hit> hits = new ArrayList<Hit>();
-		for (Primitive primitive : tracer.scene.primitives) {
-			Hit hit = primitive.getHit(shadowRay);
-			if (hit != null){
-				hits.add(hit);
-			}
-		}
-		Collections.sort(hits);
-		return hits;
+	/**
+	 * Transmittance of the shadow ray from the point (px, py, pz) of the
+	 * light with the given index to the hit.
+	 */
+	private double getExposureLevel(int lightIndex, double px, double py, double pz, Hit hit) {
+		double dx = hit.x - px;
+		double dy = hit.y - py;
+		double dz = hit.z - pz;
+		double distSquared = dx*dx + dy*dy + dz*dz;
+		if (distSquared == 0)
+			return 1;
+
+		double dist = Math.sqrt(distSquared);
+		double maxDist = Math.sqrt(distSquared-RayTracer.EPSILON);
+		counters.shadowRays++;
+		if (recording)
+			extendFootprint(px, py, pz);
+		return query.getTransmittance(lightIndex, px, py, pz, dx/dist, dy/dist, dz/dist, maxDist);
 	}
 
-	private Color getDiffuse(Hit hit, Ray shadowRay) {
-		double cosOfAngle = hit.normal.getCosOfAngle(shadowRay.dir.reverse());
+	/**
+	 * Cosine factor of the diffuse term, 0 if the light is behind the surface.
+	 */
+	private double getDiffuse(Hit hit, double sx, double sy, double sz) {
+		double cosOfAngle = -(hit.nx*sx + hit.ny*sy + hit.nz*sz);
 
 		if (cosOfAngle < 0)
-			return Color.BLACK;
-		return hit.getDiffuseColor().scale(cosOfAngle);
+			return 0;
+		return cosOfAngle;
 	}
 
-	private Color getSpecular(Hit hit, Ray shadowRay, Light light, Ray ray){
-		Vector reflection = shadowRay.dir.getReflectionAroundNormal(hit.normal);
-		Vector viewDirection = ray.dir.reverse();
-		double cosOfAngle = viewDirection.getCosOfAngle(reflection);
+	/**
+	 * Factor of the specular term, 0 unless the centre of the light is fully
+	 * exposed. The shadow ray to the centre is only cast for hits that face
+	 * the reflection.
+	 */
+	private double getSpecular(int lightIndex, Hit hit, double sx, double sy, double sz, Light light,
+			double dx, double dy, double dz){
+		double dot = 2*(sx*hit.nx + sy*hit.ny + sz*hit.nz);
+		double rx = sx - hit.nx*dot;
+		double ry = sy - hit.ny*dot;
+		double rz = sz - hit.nz*dot;
+		double cosOfAngle = -(dx*rx + dy*ry + dz*rz);
 
-		if (cosOfAngle < 0 || hit.getSpecularColor().equals(Color.BLACK) || getExposureLevel(shadowRay, hit.intersection) < 1)
-			return Color.BLACK;
-		return hit.getSpecularColor().scale(light.spec * Math.pow(cosOfAngle, hit.getPhong()));
+		if (cosOfAngle < 0)
+			return 0;
+		if (getExposureLevel(lightIndex, light.position.x, light.position.y, light.position.z, hit) < 1)
+			return 0;
+		return light.spec * Math.pow(cosOfAngle, hit.getPhong());
 	}
 
 }
@@ -0,0 +1,93 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class RayWeightTest {
+
+	private static final int WIDTH = 32, HEIGHT = 24;
+
+	@Test
+	public void faintRaysAreCut() {
+		RayTracer full = render(0, false, 0);
+		RayTracer cut = render(0.01, false, 0);
+		long fullRays = full.getMetrics().getReflectionRays() + full.getMetrics().getTransparencyRays();
+		long cutRays = cut.getMetrics().getReflectionRays() + cut.getMetrics().getTransparencyRays();
+		assertTrue(cutRays + " of " + fullRays + " rays", cutRays*3 < fullRays*2);
+		assertTrue(meanDifference(full.getImage(), cut.getImage()) < 1);
+	}
+
+	@Test
+	public void russianRouletteKeepsTheMean() {
+		RayTracer full = render(0, false, 0);
+		double[] sum = new double[WIDTH*HEIGHT*3];
+		int renders = 40;
+		long rouletteRays = 0;
+		for (int seed = 0; seed < renders; seed++) {
+			RayTracer roulette = render(0.3, true, seed);
+			rouletteRays += roulette.getMetrics().getReflectionRays();
+			BufferedImage image = roulette.getImage();
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					int rgb = image.getRGB(x, y);
+					for (int c = 0; c < 3; c++)
+						sum[(y*WIDTH + x)*3 + c] += rgb >> (c*8) & 255;
+				}
+			}
+		}
+		assertTrue(rouletteRays*2 < full.getMetrics().getReflectionRays()*renders);
+
+		double difference = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int rgb = full.getImage().getRGB(x, y);
+				for (int c = 0; c < 3; c++)
+					difference += Math.abs(sum[(y*WIDTH + x)*3 + c] / renders - (rgb >> (c*8) & 255));
+			}
+		}
+		assertTrue("mean difference " + difference / sum.length, difference / sum.length < 1);
+	}
+
+	// facing mirrors and a glass sphere, dim enough that no channel clamps
+	private static RayTracer render(double minRayWeight, boolean roulette, long seed) {
+		Scene scene = new Scene();
+		scene.camera = new Camera(0, 1, -5, 0, 0, 2, 0, 1, 0, 1.2, 1.2);
+		scene.settings = new SceneSettings(0.05, 0.1, 0.15, 1, 12);
+		Material mirror = new Material(0.1, 0.1, 0.1, 0, 0, 0, 0.6, 0.6, 0.6, 1, 0);
+		Material glass = new Material(0.3, 0.1, 0.1, 0, 0, 0, 0.2, 0.2, 0.2, 1, 0.5);
+		Material floor = new Material(0.3, 0.3, 0.3, 0, 0, 0, 0, 0, 0, 1, 0);
+		scene.materials.add(mirror);
+		scene.materials.add(glass);
+		scene.materials.add(floor);
+		scene.primitives.add(new Primitive(new Plane(1, 0, 0, -3), mirror));
+		scene.primitives.add(new Primitive(new Plane(-1, 0, 0, -3), mirror));
+		scene.primitives.add(new Primitive(new Plane(0, 0, -1, -6), mirror));
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), floor));
+		scene.primitives.add(new Primitive(new Sphere(0, 0, 2, 1), glass));
+		scene.lights.add(new Light(0, 4, 0, 0.5, 0.5, 0.5, 0, 1, 0));
+
+		RenderSettings settings = new RenderSettings(WIDTH, HEIGHT, 12, 1, false, 1);
+		settings.quiet = true;
+		settings.minRayWeight = minRayWeight;
+		settings.russianRoulette = roulette;
+		settings.seed = seed;
+		RayTracer tracer = new RayTracer(scene, settings);
+		tracer.renderScene();
+		return tracer;
+	}
+
+	private static double meanDifference(BufferedImage a, BufferedImage b) {
+		double sum = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int p = a.getRGB(x, y), q = b.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8)
+					sum += Math.abs((p >> shift & 255) - (q >> shift & 255));
+			}
+		}
+		return sum / (WIDTH*HEIGHT*3);
+	}
+}
@@ -0,0 +1,338 @@
+package RayTracing;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Spreads the tiles of one render over RenderNode processes. The coordinator
+ * parses the scene once and sends it to every node that connects, encoded by
+ * SceneCodec, then hands out tiles on demand: each node gets as many tiles as
+ * it has asked to keep in flight, and one more for every finished tile it
+ * sends back. Finished tiles go straight into the frame buffer.
+ *
+ * The tiles of a node that disconnects go back to the front of the queue.
+ * Once the queue is empty, idle nodes are also given a copy of the tile that
+ * has been out longest, if that is longer than the straggler timeout, and the
+ * first copy to come back wins. Nodes may join at any time during a render.
+ *
+ * Since every sample is derived from the seed and the pixel, the image is
+ * the same as a render in one JVM, however the tiles were distributed.
+ *
+ * Protocol, all numbers big endian: the node sends MAGIC and the number of
+ * tiles it wants in flight, the coordinator answers with the length of the
+ * encoded scene and the scene. Then the coordinator sends
+ *	TILE index x0 y0 x1 y1
+ * messages, the node answers each with
+ *	RESULT index rgb...
+ * (the pixels of the tile row by row) in any order, and the coordinator ends
+ * with DONE, or just closes the connection.
+ */
+public class RenderCoordinator {
+
+	static final int MAGIC = 0x52545244;
+	static final byte TILE   = 1;
+	static final byte RESULT = 2;
+	static final byte DONE   = 3;
+
+	private final byte[] scene;
+	private final TileScheduler scheduler;
+	private final FrameBuffer frameBuffer;
+	private final ServerSocket server;
+	private final long stragglerNanos;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+	// guarded by this
+	private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+	private final boolean[] finished;
+	// number of nodes rendering each tile, and when it was last handed out
+	private final int[] holders;
+	private final long[] issued;
+	private int finishedCount;
+	private int lostNodes;
+	private int reissuedTiles;
+	private boolean closed;
+
+	/**
+	 * @param port port to listen on, 0 for any free port
+	 * @param stragglerMillis time after which a tile is handed out again
+	 */
+	public RenderCoordinator(Scene scene, RenderSettings settings, int port, long stragglerMillis) throws IOException {
+		this.scene = SceneCodec.encode(scene, settings);
+		scheduler = new TileScheduler(settings.imageWidth, settings.imageHeight, settings.tileSize);
+		frameBuffer = new FrameBuffer(settings.imageWidth, settings.imageHeight);
+		stragglerNanos = stragglerMillis * 1000000;
+
+		int tiles = scheduler.getTileCount();
+		finished = new boolean[tiles];
+		holders = new int[tiles];
+		issued = new long[tiles];
+		for (int i = 0; i < tiles; i++) {
+			pending.add(i);
+		}
+		server = new ServerSocket(port);
+	}
+
+	/**
+	 * Runs the coordinator: scene output width height [port] [samples] [timeout in seconds]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.out.println("Usage: RenderCoordinator scene output width height [port] [samples] [timeout in seconds]");
+			return;
+		}
+		try {
+			Scene scene = RayTracer.parseScene(args[0]);
+			int samples = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+			RenderSettings settings = new RenderSettings(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				scene.settings.maxRecursionLevel, 1, samples > 1, samples);
+			int port = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+			long timeout = args.length > 6 ? Long.parseLong(args[6]) * 1000 : 0;
+
+			RenderCoordinator coordinator = new RenderCoordinator(scene, settings, port, 30000);
+			System.out.println("Waiting for render nodes on port " + coordinator.getPort());
+			long start = System.currentTimeMillis();
+			BufferedImage image = coordinator.render(timeout);
+			System.out.println("Finished rendering scene in " + (System.currentTimeMillis() - start) + " milliseconds, "
+				+ coordinator.getLostNodes() + " nodes lost, " + coordinator.getReissuedTiles() + " tiles re-issued.");
+			ImageIO.write(image, "png", new File(args[1]));
+			System.out.println("Saved file " + args[1]);
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts nodes until every tile is finished and returns the image.
+	 *
+	 * @param timeoutMillis time to give up after, 0 for none
+	 * @throws TimeoutException if the render wasn't finished in time
+	 */
+	public BufferedImage render(long timeoutMillis) throws InterruptedException, TimeoutException {
+		Thread acceptor = new Thread(this::acceptNodes, "render-coordinator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			synchronized (this) {
+				while (finishedCount < finished.length) {
+					long left = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+					if (timeoutMillis != 0 && left <= 0)
+						throw new TimeoutException("finished " + finishedCount + " of " + finished.length + " tiles in time");
+					wait(left);
+				}
+			}
+		} finally {
+			close();
+		}
+		return frameBuffer.getImage();
+	}
+
+	synchronized int getLostNodes() {
+		return lostNodes;
+	}
+
+	synchronized int getReissuedTiles() {
+		return reissuedTiles;
+	}
+
+	private void acceptNodes() {
+		while (true) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				// closed
+				return;
+			}
+			connections.add(socket);
+			Thread thread = new Thread(() -> serve(socket), "render-node " + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		List<Integer> tiles = new ArrayList<>();
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if (in.readInt() != MAGIC)
+				throw new IOException("not a render node");
+			int capacity = Math.max(1, in.readInt());
+			out.writeInt(scene.length);
+			out.write(scene);
+			out.flush();
+
+			int[] pixels = new int[scheduler.tileSize*scheduler.tileSize];
+			List<Integer> newTiles = new ArrayList<>();
+			while (waitForTiles(tiles, newTiles, capacity)) {
+				for (int tile : newTiles) {
+					int[] bounds = scheduler.getTileBounds(tile);
+					out.writeByte(TILE);
+					out.writeInt(tile);
+					for (int bound : bounds) {
+						out.writeInt(bound);
+					}
+				}
+				newTiles.clear();
+				out.flush();
+
+				if (in.readByte() != RESULT)
+					throw new IOException("expected a result");
+				int tile = in.readInt();
+				if (!tiles.contains(tile))
+					throw new IOException("tile " + tile + " wasn't handed out to this node");
+				int[] bounds = scheduler.getTileBounds(tile);
+				int width = bounds[2] - bounds[0];
+				int length = width*(bounds[3] - bounds[1]);
+				for (int i = 0; i < length; i++) {
+					pixels[i] = in.readInt();
+				}
+				if (claim(tile)) {
+					for (int y = bounds[1]; y < bounds[3]; y++) {
+						frameBuffer.setRow(bounds[0], y, pixels, (y - bounds[1])*width, width);
+					}
+					finish();
+				}
+				tiles.remove((Integer) tile);
+				release(tile);
+			}
+			out.writeByte(DONE);
+			out.flush();
+		} catch (IOException | RuntimeException | InterruptedException e) {
+			nodeLost(tiles);
+		} finally {
+			connections.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing left to do with it
+			}
+		}
+	}
+
+	/**
+	 * Tops up the tiles of a node, adding the ones handed out to newTiles, and
+	 * waits while it has none. Returns false once the render is over.
+	 */
+	private synchronized boolean waitForTiles(List<Integer> tiles, List<Integer> newTiles, int capacity)
+			throws InterruptedException {
+		while (true) {
+			if (closed || finishedCount == finished.length)
+				return false;
+			while (tiles.size() < capacity) {
+				int tile = nextTile(tiles);
+				if (tile < 0)
+					break;
+				tiles.add(tile);
+				newTiles.add(tile);
+			}
+			if (!tiles.isEmpty())
+				return true;
+			// idle until a node is lost or a tile is overdue
+			wait(Math.max(1, stragglerNanos / 4000000));
+		}
+	}
+
+	/**
+	 * Next tile for a node that is rendering the given ones, -1 if there is
+	 * none for now.
+	 */
+	private int nextTile(List<Integer> tiles) {
+		long now = System.nanoTime();
+		Integer tile = pending.poll();
+		while (tile != null && finished[tile]) {
+			tile = pending.poll();
+		}
+		if (tile == null) {
+			// every tile is out, copy the one that has been out longest if it is overdue
+			int oldest = -1;
+			for (int i = 0; i < finished.length; i++) {
+				if (!finished[i] && holders[i] > 0 && now - issued[i] > stragglerNanos && !tiles.contains(i)
+						&& (oldest < 0 || issued[i] < issued[oldest])) {
+					oldest = i;
+				}
+			}
+			if (oldest < 0)
+				return -1;
+			tile = oldest;
+			reissuedTiles++;
+		}
+		holders[tile]++;
+		issued[tile] = now;
+		return tile;
+	}
+
+	private synchronized boolean claim(int tile) {
+		if (finished[tile])
+			return false;
+		finished[tile] = true;
+		return true;
+	}
+
+	// counted once the pixels are in the frame buffer
+	private synchronized void finish() {
+		finishedCount++;
+		if (finishedCount == finished.length)
+			notifyAll();
+	}
+
+	private synchronized void release(int tile) {
+		holders[tile]--;
+	}
+
+	private synchronized void nodeLost(List<Integer> tiles) {
+		if (closed)
+			return;
+		lostNodes++;
+		for (int tile : tiles) {
+			holders[tile]--;
+			if (!finished[tile] && holders[tile] == 0)
+				pending.addFirst(tile);
+		}
+		tiles.clear();
+		notifyAll();
+	}
+
+	private void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			server.close();
+		} catch (IOException e) {
+			// not accepting any more either way
+		}
+		// unblocks the threads waiting for results of tiles finished elsewhere
+		for (Socket socket : connections) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+}
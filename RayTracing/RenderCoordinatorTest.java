@@ -0,0 +1,114 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+
+import org.junit.Test;
+
+public class RenderCoordinatorTest {
+
+	private static final int WIDTH = 48, HEIGHT = 36;
+
+	@Test
+	public void distributedRenderMatchesLocalRender() throws Exception {
+		RenderCoordinator coordinator = new RenderCoordinator(createScene(), createSettings(), 0, 30000);
+		startNode(coordinator.getPort(), 1);
+		startNode(coordinator.getPort(), 2);
+
+		assertSameImage(renderLocally(), coordinator.render(60000));
+		assertEquals(0, coordinator.getLostNodes());
+	}
+
+	@Test
+	public void lostAndStalledTilesAreReissued() throws Exception {
+		RenderCoordinator coordinator = new RenderCoordinator(createScene(), createSettings(), 0, 200);
+		int port = coordinator.getPort();
+		BufferedImage[] image = new BufferedImage[1];
+		Exception[] failure = new Exception[1];
+		Thread render = new Thread(() -> {
+			try {
+				image[0] = coordinator.render(60000);
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		render.start();
+
+		// one node drops its first tile, the other never answers
+		Socket dropped = connect(port);
+		Socket stalled = connect(port);
+		try {
+			dropped.close();
+			startNode(port, 1);
+			render.join();
+		} finally {
+			stalled.close();
+		}
+
+		assertNull(failure[0]);
+		assertSameImage(renderLocally(), image[0]);
+		assertEquals(1, coordinator.getLostNodes());
+		assertTrue(coordinator.getReissuedTiles() > 0);
+	}
+
+	// handshakes and waits for the first tile
+	private static Socket connect(int port) throws Exception {
+		Socket socket = new Socket("localhost", port);
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		out.writeInt(RenderCoordinator.MAGIC);
+		out.writeInt(1);
+		out.flush();
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		in.readFully(new byte[in.readInt()]);
+		assertEquals(RenderCoordinator.TILE, in.readByte());
+		return socket;
+	}
+
+	private static void startNode(int port, int threads) {
+		Thread node = new Thread(() -> {
+			try {
+				RenderNode.run("localhost", port, threads);
+			} catch (Exception e) {
+				// the test fails on the image
+			}
+		});
+		node.setDaemon(true);
+		node.start();
+	}
+
+	private static BufferedImage renderLocally() {
+		RenderSettings settings = createSettings();
+		settings.quiet = true;
+		RayTracer tracer = new RayTracer(createScene(), settings);
+		tracer.renderScene();
+		return tracer.getImage();
+	}
+
+	private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+
+	private static RenderSettings createSettings() {
+		RenderSettings settings = new RenderSettings(WIDTH, HEIGHT, 3, 1, true, 4);
+		settings.sampler = Sampler.HALTON;
+		settings.seed = 7;
+		settings.tileSize = 8;
+		return settings;
+	}
+
+	// with an instance, which the nodes get through the scene codec
+	private static Scene createScene() {
+		Scene scene = AllocationTest.createScene();
+		scene.primitives.add(new Primitive(new Instance(scene.primitives.get(0).shape,
+			Transform.of(-1, 1.5, 2, 0, 0, 20, 0.5, 1, 0.5)), scene.materials.get(1)));
+		return scene;
+	}
+}
@@ -0,0 +1,279 @@
+package RayTracing;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A render of a RayTracer in the background, as the future of its image.
+ *
+ * Cancelling the job, or reaching its time budget, stops every render thread
+ * at its next row of pixels. A job past its budget completes with the image
+ * as far as it got and isTimedOut; a cancelled one completes with a
+ * CancellationException. Jobs of the same tracer render one after the
+ * other.
+ *
+ * A governed job also watches the rate tiles finish at and, when the rest of
+ * the image would not be done within the budget, lowers the samples per
+ * pixel of anti-aliasing and then the shadow rays per light side of the
+ * tiles still to start, halving one of them at a time. getSamples and
+ * getShadowRays tell the quality the image got. Progressive renders keep
+ * their samples and stop after the pass the budget ends in.
+ */
+public class RenderJob implements Future<BufferedImage> {
+
+	// the budget is taken as this much shorter when projecting the end
+	static final double MARGIN = 0.1;
+
+	private static ScheduledExecutorService timer;
+
+	private final RayTracer tracer;
+	private final long budgetMillis;
+	private final boolean governed;
+	private final CompletableFuture<BufferedImage> image = new CompletableFuture<>();
+	private volatile boolean expired;
+	// the job holds the tracer's jobLock and may halt it
+	private volatile boolean running;
+	private long startTime, millis;
+
+	// the governor's last change: when, and how many tiles were done then
+	private long changeTime;
+	private int changeTiles = -1;
+
+	/**
+	 * @param budgetMillis wall-clock time the render may take, 0 for no limit
+	 * @param governed lower the quality to finish within the budget
+	 */
+	public RenderJob(RayTracer tracer, long budgetMillis, boolean governed) {
+		this.tracer = tracer;
+		this.budgetMillis = budgetMillis;
+		this.governed = governed;
+	}
+
+	/**
+	 * Starts the render on a pool of its own, with numOfThreads threads.
+	 */
+	public RenderJob start() {
+		return start(null);
+	}
+
+	/**
+	 * Starts the render on the threads of the given pool, see
+	 * RayTracer.renderScene(ForkJoinPool).
+	 */
+	public RenderJob start(ForkJoinPool pool) {
+		Thread thread = new Thread(() -> run(pool), "render-job");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Renders on the calling thread and completes the job, on the given pool
+	 * or on one of its own if null. Jobs of the same tracer render one after
+	 * the other: this waits for the render of the one before to stop, so that
+	 * clearing halt doesn't resume a cancelled render.
+	 */
+	void run(ForkJoinPool pool) {
+		tracer.jobLock.lock();
+		try {
+			running = true;
+			tracer.halt = false;
+			if (!image.isDone())
+				render(pool);
+		} finally {
+			running = false;
+			tracer.jobLock.unlock();
+		}
+	}
+
+	private void render(ForkJoinPool pool) {
+		startTime = System.currentTimeMillis();
+		ScheduledFuture<?> deadline = null, governor = null;
+		try {
+			if (budgetMillis > 0) {
+				deadline = getTimer().schedule(this::expire, budgetMillis, TimeUnit.MILLISECONDS);
+				if (governed) {
+					long period = Math.max(5, budgetMillis / 50);
+					governor = getTimer().scheduleAtFixedRate(this::govern, period, period, TimeUnit.MILLISECONDS);
+				}
+			}
+			if (pool != null)
+				tracer.renderScene(pool);
+			else
+				tracer.renderScene();
+			stopTimers(deadline, governor);
+			image.complete(tracer.getImage());
+		} catch (Throwable e) {
+			stopTimers(deadline, governor);
+			image.completeExceptionally(e);
+		}
+	}
+
+	private void stopTimers(ScheduledFuture<?> deadline, ScheduledFuture<?> governor) {
+		if (deadline != null)
+			deadline.cancel(false);
+		if (governor != null)
+			governor.cancel(false);
+		millis = System.currentTimeMillis() - startTime;
+	}
+
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "render-deadlines");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return timer;
+	}
+
+	private void expire() {
+		expired = true;
+		tracer.halt = true;
+	}
+
+	/**
+	 * Lowers the quality if the tiles finished since the last change, at the
+	 * rate they finished, leave the rest of the image past the budget.
+	 */
+	private void govern() {
+		RenderMetrics metrics = tracer.getMetrics();
+		if (metrics == null || tracer.halt)
+			return;
+		long now = System.currentTimeMillis();
+		int done = metrics.getTilesDone();
+		if (changeTiles < 0 || done < changeTiles) {
+			changeTime = now;
+			changeTiles = done;
+			return;
+		}
+		if (done == changeTiles)
+			return;
+
+		double millisPerTile = (double) (now - changeTime) / (done - changeTiles);
+		long end = startTime + (long) (budgetMillis*(1 - MARGIN));
+		if (now + millisPerTile*(metrics.getTotalTiles() - done) > end && lowerQuality()) {
+			changeTime = now;
+			changeTiles = done;
+		}
+	}
+
+	/**
+	 * Halves the samples per pixel or, once those are down to 1, the shadow
+	 * rays per light side. Returns false if both are as low as they go.
+	 */
+	private boolean lowerQuality() {
+		RenderSettings settings = tracer.settings;
+		int samples = Math.min(settings.numOfSamples, tracer.sampleLimit);
+		if (settings.antiAliasing && !settings.progressive && samples > 1) {
+			tracer.sampleLimit = samples / 2;
+			return true;
+		}
+		int shadowRays = Math.min(tracer.getSettings().shadowRaysNum, tracer.shadowRayLimit);
+		if (shadowRays > 1) {
+			tracer.shadowRayLimit = shadowRays / 2;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = image.cancel(mayInterruptIfRunning);
+		// a job still waiting for the tracer must not halt the render of another
+		if (cancelled && running)
+			tracer.halt = true;
+		return cancelled;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return image.isCancelled();
+	}
+
+	@Override
+	public boolean isDone() {
+		return image.isDone();
+	}
+
+	@Override
+	public BufferedImage get() throws InterruptedException, ExecutionException {
+		return image.get();
+	}
+
+	@Override
+	public BufferedImage get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return image.get(timeout, unit);
+	}
+
+	public RayTracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * Whether the budget ran out before the render was complete. The image
+	 * then has whole tiles and rows of the tiles in progress, or, rendered
+	 * progressively, fewer passes.
+	 */
+	public boolean isTimedOut() {
+		checkDone();
+		RenderMetrics metrics = tracer.getMetrics();
+		return expired && (metrics == null || metrics.getTilesDone() < metrics.getTotalTiles());
+	}
+
+	/**
+	 * Samples per pixel the image got: the fewest of any tile, or the
+	 * passes of a progressive render.
+	 */
+	public int getSamples() {
+		checkDone();
+		if (tracer.settings.progressive)
+			return tracer.passes;
+		return tracer.settings.antiAliasing ? tracer.getFewestSamples() : 1;
+	}
+
+	/**
+	 * Shadow rays per light side the image got, the fewest of any tile.
+	 */
+	public int getShadowRays() {
+		checkDone();
+		return tracer.getFewestShadowRays();
+	}
+
+	public long getMillis() {
+		checkDone();
+		return millis;
+	}
+
+	private void checkDone() {
+		if (!image.isDone())
+			throw new IllegalStateException("render still running");
+		if (image.isCancelled())
+			throw new CancellationException();
+	}
+
+	@Override
+	public String toString() {
+		if (!image.isDone())
+			return "running";
+		if (image.isCancelled())
+			return "cancelled";
+		RenderMetrics metrics = tracer.getMetrics();
+		String quality = getSamples() + " samples per pixel, " + getShadowRays() + " shadow rays per light side";
+		if (!isTimedOut())
+			return "rendered in " + millis + " ms with " + quality;
+		return "budget of " + budgetMillis + " ms reached after " + metrics.getTilesDone() + " of "
+			+ metrics.getTotalTiles() + " tiles, with " + quality;
+	}
+}
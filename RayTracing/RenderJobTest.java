@@ -0,0 +1,99 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+public class RenderJobTest {
+
+	@Test
+	public void cancellingStopsTheTileInProgress() throws Exception {
+		// a single tile, that takes many seconds
+		RenderSettings settings = new RenderSettings(400, 400, 3, 1, true, 64);
+		settings.quiet = true;
+		settings.tileSize = 400;
+		RayTracer tracer = new RayTracer(scene(8), settings);
+		RenderJob job = new RenderJob(tracer, 0, false);
+		Thread thread = new Thread(() -> job.run(null));
+		thread.start();
+		while (tracer.getMetrics() == null)
+			Thread.sleep(1);
+		assertTrue(job.cancel(false));
+		thread.join();
+		assertEquals(0, tracer.getMetrics().getTilesDone());
+		assertTrue(job.isCancelled());
+		try {
+			job.get();
+			fail();
+		} catch (CancellationException e) {
+		}
+	}
+
+	@Test
+	public void theBudgetEndsTheRender() throws Exception {
+		RenderSettings settings = new RenderSettings(400, 400, 3, 1, true, 64);
+		settings.quiet = true;
+		RenderJob job = new RenderJob(new RayTracer(scene(8), settings), 300, false).start();
+		assertEquals(400, job.get().getWidth());
+		assertTrue(job.isTimedOut());
+		assertEquals(64, job.getSamples());
+		assertEquals(8, job.getShadowRays());
+	}
+
+	@Test
+	public void theGovernorLowersTheQualityToFinishInTime() throws Exception {
+		// all of it would take minutes, at the lowest quality it takes well under a second
+		RenderSettings settings = new RenderSettings(160, 120, 3, 1, true, 64);
+		settings.quiet = true;
+		settings.tileSize = 8;
+		RenderJob job = new RenderJob(new RayTracer(scene(8), settings), 4000, true).start();
+		job.get();
+		assertFalse(job.toString(), job.isTimedOut());
+		assertTrue(job.toString(), job.getSamples() < 64);
+	}
+
+	@Test(timeout = 30000)
+	public void jobsOfOneTracerTakeTurns() throws Exception {
+		RenderSettings settings = new RenderSettings(200, 150, 3, 1, true, 16);
+		settings.quiet = true;
+		RayTracer tracer = new RayTracer(scene(4), settings);
+		RenderJob first = new RenderJob(tracer, 0, false).start();
+		while (!tracer.jobLock.isLocked())
+			Thread.sleep(1);
+
+		// cancelling a job that waits for the tracer leaves the render alone
+		RenderJob second = new RenderJob(tracer, 0, false).start();
+		assertTrue(second.cancel(false));
+		first.get();
+		RenderMetrics metrics = tracer.getMetrics();
+		assertEquals(metrics.getTotalTiles(), metrics.getTilesDone());
+
+		// and a job after a cancelled one doesn't resume its render
+		RenderJob third = new RenderJob(tracer, 0, false).start();
+		while (tracer.getMetrics() == metrics)
+			Thread.sleep(1);
+		assertTrue(third.cancel(false));
+		RenderJob fourth = new RenderJob(tracer, 0, false).start();
+		fourth.get();
+		assertTrue(third.isCancelled());
+		assertEquals(tracer.getMetrics().getTotalTiles(), tracer.getMetrics().getTilesDone());
+	}
+
+	private static Scene scene(int shadowRays) {
+		Scene scene = new Scene();
+		scene.camera = new Camera(0, 3, -6, 0, 0, 0, 0, 1, 0, 1.5, 1.2);
+		scene.settings = new SceneSettings(0.1, 0.2, 0.3, shadowRays, 3);
+		scene.settings.shadowProbesNum = 0;
+		Material red = new Material(0.9, 0.2, 0.2, 0, 0, 0, 0.2, 0.2, 0.2, 10, 0);
+		Material grey = new Material(0.7, 0.7, 0.7, 0, 0, 0, 0, 0, 0, 1, 0);
+		scene.materials.add(red);
+		scene.materials.add(grey);
+		scene.primitives.add(new Primitive(new Sphere(0, 0.2, 0, 0.8), red));
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), grey));
+		scene.lights.add(new Light(0, 4, -1, 1, 1, 1, 0, 0.9, 1));
+		scene.lights.add(new Light(3, 4, -2, 0.5, 0.5, 0.5, 0, 0.9, 1));
+		return scene;
+	}
+}
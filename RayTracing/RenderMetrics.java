@@ -0,0 +1,263 @@
+package RayTracing;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of one render. Workers count rays in plain fields of their own
+ * Worker and add them to the shared LongAdders once per tile, so the hot
+ * path pays for no atomic operation. While a render runs its metrics are
+ * registered as the MBean RayTracing:type=RenderMetrics,id=n.
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	private final LongAdder primaryRays = new LongAdder();
+	private final LongAdder shadowRays = new LongAdder();
+	private final LongAdder reflectionRays = new LongAdder();
+	private final LongAdder transparencyRays = new LongAdder();
+	private final LongAdder intersectionTests = new LongAdder();
+	private final LongAdder occluderHits = new LongAdder();
+	private final LongAdder occluderMisses = new LongAdder();
+	private final AtomicInteger tilesDone = new AtomicInteger();
+	private final List<Worker> workers = new CopyOnWriteArrayList<>();
+
+	private volatile int totalTiles;
+	private volatile long startNanos = System.nanoTime();
+	// 0 while running
+	private volatile long endNanos;
+	private ObjectName name;
+
+	/**
+	 * Counts of one worker since its last tile, and its busy time.
+	 */
+	static class Worker {
+		final String thread = Thread.currentThread().getName();
+		long primaryRays, shadowRays, reflectionRays, transparencyRays, intersectionTests;
+		long occluderHits, occluderMisses;
+		private final long startNanos = System.nanoTime();
+		private final AtomicLong busyNanos = new AtomicLong();
+	}
+
+	Worker newWorker() {
+		Worker worker = new Worker();
+		workers.add(worker);
+		return worker;
+	}
+
+	void start(int totalTiles) {
+		this.totalTiles = totalTiles;
+		startNanos = System.nanoTime();
+		endNanos = 0;
+		register();
+	}
+
+	void finish() {
+		endNanos = System.nanoTime();
+		unregister();
+	}
+
+	/**
+	 * Adds the counts of the worker to the totals and clears them.
+	 */
+	void add(Worker worker, long busyNanos) {
+		primaryRays.add(worker.primaryRays);
+		shadowRays.add(worker.shadowRays);
+		reflectionRays.add(worker.reflectionRays);
+		transparencyRays.add(worker.transparencyRays);
+		intersectionTests.add(worker.intersectionTests);
+		occluderHits.add(worker.occluderHits);
+		occluderMisses.add(worker.occluderMisses);
+		worker.primaryRays = worker.shadowRays = worker.reflectionRays = worker.transparencyRays = 0;
+		worker.intersectionTests = worker.occluderHits = worker.occluderMisses = 0;
+		worker.busyNanos.addAndGet(busyNanos);
+	}
+
+	/**
+	 * Counts a finished tile and returns the number of tiles done.
+	 */
+	int tileFinished() {
+		return tilesDone.incrementAndGet();
+	}
+
+	@Override
+	public long getPrimaryRays() {
+		return primaryRays.sum();
+	}
+
+	@Override
+	public long getShadowRays() {
+		return shadowRays.sum();
+	}
+
+	@Override
+	public long getReflectionRays() {
+		return reflectionRays.sum();
+	}
+
+	@Override
+	public long getTransparencyRays() {
+		return transparencyRays.sum();
+	}
+
+	@Override
+	public long getIntersectionTests() {
+		return intersectionTests.sum();
+	}
+
+	@Override
+	public long getOccluderHits() {
+		return occluderHits.sum();
+	}
+
+	@Override
+	public long getOccluderMisses() {
+		return occluderMisses.sum();
+	}
+
+	@Override
+	public double getOccluderHitRate() {
+		long hits = getOccluderHits();
+		long total = hits + getOccluderMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public double getRaysPerSecond() {
+		long rays = getPrimaryRays() + getShadowRays() + getReflectionRays() + getTransparencyRays();
+		long elapsed = getElapsedNanos();
+		return elapsed == 0 ? 0 : rays * 1e9 / elapsed;
+	}
+
+	@Override
+	public int getTilesDone() {
+		return tilesDone.get();
+	}
+
+	@Override
+	public int getTotalTiles() {
+		return totalTiles;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return getElapsedNanos() / 1_000_000;
+	}
+
+	private long getElapsedNanos() {
+		long end = endNanos;
+		return (end != 0 ? end : System.nanoTime()) - startNanos;
+	}
+
+	@Override
+	public long getEtaMillis() {
+		int done = getTilesDone();
+		if (done == 0)
+			return -1;
+		long remaining = Math.max(0, totalTiles - done);
+		return getElapsedMillis() * remaining / done;
+	}
+
+	@Override
+	public int getWorkerCount() {
+		return workers.size();
+	}
+
+	@Override
+	public long getBusyMillis() {
+		long busy = 0;
+		for (Worker worker : workers)
+			busy += worker.busyNanos.get();
+		return busy / 1_000_000;
+	}
+
+	@Override
+	public long getIdleMillis() {
+		long idle = 0;
+		for (Worker worker : workers)
+			idle += getIdleNanos(worker);
+		return idle / 1_000_000;
+	}
+
+	// time since the worker was created that it spent outside of tiles
+	private long getIdleNanos(Worker worker) {
+		long end = endNanos != 0 ? endNanos : System.nanoTime();
+		return Math.max(0, end - worker.startNanos - worker.busyNanos.get());
+	}
+
+	/**
+	 * One line summary.
+	 */
+	String toText() {
+		return String.format("tiles %d/%d, %.0f rays/s (primary %d, shadow %d, reflection %d, transparency %d), "
+				+ "%d intersection tests, occluder cache %.0f%% of %d, "
+				+ "elapsed %d ms, eta %d ms, busy %d ms, idle %d ms over %d workers",
+			getTilesDone(), getTotalTiles(), getRaysPerSecond(),
+			getPrimaryRays(), getShadowRays(), getReflectionRays(), getTransparencyRays(),
+			getIntersectionTests(), getOccluderHitRate()*100, getOccluderHits() + getOccluderMisses(),
+			getElapsedMillis(), getEtaMillis(),
+			getBusyMillis(), getIdleMillis(), getWorkerCount());
+	}
+
+	@Override
+	public String getJson() {
+		StringBuilder json = new StringBuilder();
+		json.append('{')
+			.append("\"tilesDone\":").append(getTilesDone())
+			.append(",\"totalTiles\":").append(getTotalTiles())
+			.append(",\"elapsedMillis\":").append(getElapsedMillis())
+			.append(",\"etaMillis\":").append(getEtaMillis())
+			.append(",\"raysPerSecond\":").append(Math.round(getRaysPerSecond()))
+			.append(",\"rays\":{")
+			.append("\"primary\":").append(getPrimaryRays())
+			.append(",\"shadow\":").append(getShadowRays())
+			.append(",\"reflection\":").append(getReflectionRays())
+			.append(",\"transparency\":").append(getTransparencyRays())
+			.append("},\"intersectionTests\":").append(getIntersectionTests())
+			.append(",\"occluderCache\":{")
+			.append("\"hits\":").append(getOccluderHits())
+			.append(",\"misses\":").append(getOccluderMisses())
+			.append('}')
+			.append(",\"workers\":[");
+		for (int i = 0; i < workers.size(); i++) {
+			Worker worker = workers.get(i);
+			if (i > 0)
+				json.append(',');
+			json.append("{\"thread\":\"").append(worker.thread.replace("\\", "\\\\").replace("\"", "\\\"")).append('"')
+				.append(",\"busyMillis\":").append(worker.busyNanos.get() / 1_000_000)
+				.append(",\"idleMillis\":").append(getIdleNanos(worker) / 1_000_000)
+				.append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("RayTracing:type=RenderMetrics,id=" + ids.incrementAndGet());
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			System.out.println("Render metrics not registered: " + e.getMessage());
+			name = null;
+		}
+	}
+
+	private void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			System.out.println("Render metrics not unregistered: " + e.getMessage());
+		}
+		name = null;
+	}
+}
@@ -0,0 +1,30 @@
+package RayTracing;
+
+/**
+ * Management interface of RenderMetrics. Rates are averages since the start
+ * of the render.
+ */
+public interface RenderMetricsMBean {
+	long getPrimaryRays();
+	long getShadowRays();
+	long getReflectionRays();
+	long getTransparencyRays();
+	long getIntersectionTests();
+	/** Shadow rays blocked by the last occluder of their light, tested first. */
+	long getOccluderHits();
+	long getOccluderMisses();
+	double getOccluderHitRate();
+	double getRaysPerSecond();
+
+	int getTilesDone();
+	int getTotalTiles();
+	long getElapsedMillis();
+	/** Estimated time until the last tile is done, -1 before the first one. */
+	long getEtaMillis();
+
+	int getWorkerCount();
+	long getBusyMillis();
+	long getIdleMillis();
+
+	String getJson();
+}
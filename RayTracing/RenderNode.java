@@ -0,0 +1,103 @@
+package RayTracing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders tiles for a RenderCoordinator. The node decodes the scene it is
+ * sent, builds its own BVH and renders the tiles it is handed on a pool of
+ * threads, keeping two tiles per thread in flight so the threads don't wait
+ * for the network.
+ */
+public class RenderNode {
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.out.println("Usage: RenderNode host port [threads]");
+			return;
+		}
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		try {
+			int tiles = run(args[0], Integer.parseInt(args[1]), threads);
+			System.out.println("Rendered " + tiles + " tiles.");
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Renders tiles until the coordinator is done and returns their number.
+	 */
+	static int run(String host, int port, int threads) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		int tiles = 0;
+		try (Socket socket = new Socket(host, port)) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(RenderCoordinator.MAGIC);
+			out.writeInt(threads*2);
+			out.flush();
+
+			byte[] scene = new byte[in.readInt()];
+			in.readFully(scene);
+			RayTracer tracer = SceneCodec.decode(scene);
+			tracer.prepare();
+			Map<Thread, RayTracingWorker> workers = new ConcurrentHashMap<>();
+
+			while (true) {
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				if (type == RenderCoordinator.DONE)
+					break;
+				if (type != RenderCoordinator.TILE)
+					throw new IOException("unexpected message " + type);
+				int tile = in.readInt();
+				int x0 = in.readInt();
+				int y0 = in.readInt();
+				int x1 = in.readInt();
+				int y1 = in.readInt();
+				pool.execute(() -> renderTile(tracer, workers, out, tile, x0, y0, x1, y1));
+				tiles++;
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return tiles;
+	}
+
+	private static void renderTile(RayTracer tracer, Map<Thread, RayTracingWorker> workers,
+			DataOutputStream out, int tile, int x0, int y0, int x1, int y1) {
+		workers.computeIfAbsent(Thread.currentThread(), thread -> new RayTracingWorker(tracer))
+			.renderTile(x0, y0, x1, y1);
+
+		FrameBuffer frameBuffer = tracer.getFrameBuffer();
+		try {
+			synchronized (out) {
+				out.writeByte(RenderCoordinator.RESULT);
+				out.writeInt(tile);
+				for (int y = y0; y < y1; y++) {
+					for (int x = x0; x < x1; x++) {
+						out.writeInt(frameBuffer.getPixel(x, y));
+					}
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			// the coordinator is gone, the reading thread finds out too
+		}
+	}
+}
@@ -7,6 +7,41 @@ public class RenderSettings {
 	public int numOfThreads;
 	public boolean antiAliasing;
 	public int numOfSamples;
+	// edge length in pixels of the tiles the image is rendered in
+	public int tileSize = 16;
+	// render one sample per pixel per pass, numOfSamples passes at most
+	public boolean progressive;
+	// stop a progressive render once a pass changes the image less than this
+	public double convergenceThreshold = 0;
+	// anti-alias with minSamples samples per pixel and keep sampling, up to
+	// numOfSamples, while the standard error of the pixel exceeds the threshold
+	public boolean adaptive;
+	public int minSamples = 4;
+	public double adaptiveThreshold = 0.01;
+	// cut reflection and transparency rays whose weight in the pixel, the
+	// product of the reflection colours and transparencies on their way, is
+	// below this. With Russian roulette such a ray goes on with probability
+	// weight/minRayWeight instead and then counts 1/probability times.
+	// maxRecursionLevel stays the limit either way.
+	public double minRayWeight = 0.002;
+	public boolean russianRoulette;
+	// one of Sampler.NAMES, and the seed every sample value is derived from
+	public String sampler = Sampler.RANDOM;
+	public long seed;
+	// trace reflection and transparency rays by recursion rather than on the
+	// worker's explicit stack; both give the same image
+	public boolean recursiveTracing;
+	// keep a footprint of what the rays of each pixel touched, so that after
+	// scene edits a render traces only the pixels they can change, see
+	// RayTracer.primitiveAdded. Traces pixel by pixel, not in packets.
+	public boolean incremental;
+	// trace the rays of blocks of pixels together when not anti-aliasing
+	public boolean packets = true;
+	// print the render metrics every this many seconds, 0 for never
+	public int metricsInterval = 0;
+	public boolean metricsJson;
+	// don't print progress and summaries, for batch renders
+	public boolean quiet;
 
 	public RenderSettings(int width, int height, int max, int threads, boolean alias, int multiplier) {
 		this.imageWidth = width;
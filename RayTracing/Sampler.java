@@ -0,0 +1,97 @@
+package RayTracing;
+
+/**
+ * Source of the sample values of one worker.
+ *
+ * A sample is started for a pixel with startSample, after which every call to
+ * next returns the value of the next dimension. Values depend only on the
+ * seed, the pixel, the index of the sample within the pixel and the
+ * dimension, never on the thread or the order pixels are rendered in, so a
+ * render is reproducible for any number of threads. Values are hashed with
+ * the SplitMix64 mixer that SplittableRandom uses, which lets the sampler
+ * restart its stream for every sample without allocating.
+ */
+abstract class Sampler {
+	static final String RANDOM     = "random";
+	static final String STRATIFIED = "stratified";
+	static final String HALTON     = "halton";
+	static final String BLUE_NOISE = "blue-noise";
+	static final String[] NAMES = {RANDOM, STRATIFIED, HALTON, BLUE_NOISE};
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	final long seed;
+	int x, y;
+	// sample index within the pixel, and the number of samples of the pixel
+	int index, count;
+	private int dimension;
+	// hashes of the seed and the pixel, and of those and the sample index
+	private long pixelKey, sampleKey;
+
+	Sampler(long seed) {
+		this.seed = seed;
+	}
+
+	static Sampler create(String name, long seed) {
+		switch (name) {
+		case RANDOM:     return new RandomSampler(seed);
+		case STRATIFIED: return new StratifiedSampler(seed);
+		case HALTON:     return new HaltonSampler(seed);
+		case BLUE_NOISE: return new BlueNoiseSampler(seed);
+		default:
+			throw new IllegalArgumentException("Unknown sampler: " + name);
+		}
+	}
+
+	/**
+	 * Starts sample index (of count) of the pixel (x, y).
+	 */
+	void startSample(int x, int y, int index, int count) {
+		this.x = x;
+		this.y = y;
+		this.index = index;
+		this.count = Math.max(1, count);
+		dimension = 0;
+		pixelKey = mix(seed + mix(((long) x << 32) ^ (y & 0xffffffffL)));
+		sampleKey = mix(pixelKey + (index + 1)*GOLDEN_GAMMA);
+	}
+
+	/**
+	 * Value of the next dimension of the current sample, in [0, 1).
+	 */
+	final double next() {
+		return get(dimension++);
+	}
+
+	abstract double get(int dimension);
+
+	/**
+	 * Uniform value of the dimension of the current sample.
+	 */
+	final double random(int dimension) {
+		return toDouble(mix(sampleKey + (dimension + 1)*GOLDEN_GAMMA));
+	}
+
+	/**
+	 * Uniform value of the dimension that is the same for every sample of the
+	 * current pixel.
+	 */
+	final double pixelRandom(int dimension) {
+		return toDouble(mix(pixelKey + (dimension + 1)*GOLDEN_GAMMA));
+	}
+
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	static double toDouble(long bits) {
+		return (bits >>> 11) * 0x1.0p-53;
+	}
+
+	// fractional part, for values shifted by an offset in [0, 1)
+	static double wrap(double value) {
+		return value - Math.floor(value);
+	}
+}
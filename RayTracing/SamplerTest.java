@@ -0,0 +1,84 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SamplerTest {
+
+	private static final int SIZE = 24;
+
+	@Test
+	public void valuesDependOnlyOnPixelAndSample() {
+		for (String name : Sampler.NAMES) {
+			Sampler a = Sampler.create(name, 7);
+			Sampler b = Sampler.create(name, 7);
+			b.startSample(1, 2, 3, 8);
+			b.next();
+			for (int i = 0; i < 8; i++) {
+				a.startSample(5, 6, i, 8);
+				b.startSample(5, 6, i, 8);
+				for (int d = 0; d < 40; d++) {
+					double value = a.next();
+					assertTrue(name, value >= 0 && value < 1);
+					assertEquals(name, value, b.next(), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void stratifiedSamplesCoverEveryStratum() {
+		int count = 7;
+		Sampler sampler = Sampler.create(Sampler.STRATIFIED, 0);
+		for (int d = 0; d < 4; d++) {
+			boolean[] covered = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				sampler.startSample(3, 4, i, count);
+				for (int skip = 0; skip < d; skip++)
+					sampler.next();
+				covered[(int) (sampler.next() * count)] = true;
+			}
+			for (int s = 0; s < count; s++)
+				assertTrue("dimension " + d + " stratum " + s, covered[s]);
+		}
+	}
+
+	@Test
+	public void blueNoiseTextureIsAPermutation() {
+		float[] texture = BlueNoiseSampler.createTexture(1);
+		boolean[] seen = new boolean[texture.length];
+		for (float value : texture) {
+			int rank = (int) (value * texture.length);
+			assertFalse(seen[rank]);
+			seen[rank] = true;
+		}
+	}
+
+	@Test
+	public void renderDoesNotDependOnThreadCount() {
+		for (String name : Sampler.NAMES) {
+			int[] single = render(name, 1);
+			int[] parallel = render(name, 3);
+			assertArrayEquals(name, single, parallel);
+		}
+	}
+
+	private static int[] render(String sampler, int threads) {
+		Scene scene = new Scene();
+		scene.camera = new Camera(0, 2, -10, 0, 0, 0, 0, 1, 0, 1.5, 1.2);
+		scene.settings = new SceneSettings(0.1, 0.2, 0.3, 3, 3);
+		Material matte = new Material(0.7, 0.7, 0.7, 0.5, 0.5, 0.5, 0.3, 0.3, 0.3, 10, 0);
+		scene.materials.add(matte);
+		scene.primitives.add(new Primitive(new Sphere(0, 0, 0, 1), matte));
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), matte));
+		scene.lights.add(new Light(0, 5, -5, 1, 1, 1, 1, 0.8, 2));
+
+		RenderSettings settings = new RenderSettings(SIZE, SIZE, 3, threads, true, 4);
+		settings.sampler = sampler;
+		settings.tileSize = 5;
+		RayTracer tracer = new RayTracer(scene, settings);
+		tracer.renderScene();
+		return tracer.getImage().getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+	}
+}
@@ -0,0 +1,30 @@
+package RayTracing;
+
+class ScalarIntersectionKernel extends IntersectionKernel {
+
+	@Override
+	void intersect(PackedPrimitives packed, int start, int count,
+			double ox, double oy, double oz, double dx, double dy, double dz, double[] dist) {
+		for (int i = 0; i < count; i++) {
+			int index = start + i;
+			switch (packed.kind[index]) {
+			case PackedPrimitives.SPHERE:
+				dist[i] = intersectSphere(packed, index, ox, oy, oz, dx, dy, dz);
+				break;
+			case PackedPrimitives.BOX:
+				dist[i] = intersectBox(packed, index, ox, oy, oz, 1/dx, 1/dy, 1/dz);
+				break;
+			case PackedPrimitives.PLANE:
+				dist[i] = intersectPlane(packed, index, ox, oy, oz, dx, dy, dz);
+				break;
+			default:
+				dist[i] = packed.primitives[index].shape.getHitDistance(ox, oy, oz, dx, dy, dz);
+			}
+		}
+	}
+
+	@Override
+	String getName() {
+		return "scalar";
+	}
+}
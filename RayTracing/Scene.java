@@ -9,4 +9,8 @@ public class Scene {
 	public final List<Light> lights = new ArrayList<>();
 	public Camera camera;
 	public SceneSettings settings = new SceneSettings(1, 1, 1, 6, 12);
+	// loaded with the scene from a cache, used if the primitives are unchanged
+	Accelerator accelerator;
+	// absolute paths of the mesh files the scene was parsed with
+	final List<String> meshFiles = new ArrayList<>();
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package RayTracing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import RayTracing.RayTracer.RayTracerException;
+
+/**
+ * Binary copy of a parsed scene, kept next to the scene file as
+ * scene.txt.cache. It holds the SHA-256 of the scene text and the size and
+ * modification time of every mesh file the scene uses, and is only read if
+ * they all still match. Loading maps the file and decodes the scene straight
+ * from the mapped buffer, so a warm start skips the text parser, the OBJ
+ * loader and, with the trees stored too, every BVH build.
+ *
+ * The system property raytracer.sceneCache selects what is cached: "full"
+ * (the default) the scene with its trees, "scene" the scene alone, "off"
+ * nothing. A cache that can't be read or written is ignored.
+ */
+class SceneCache {
+
+	private static final int MAGIC = 0x52545343;
+	static final String SUFFIX = ".cache";
+
+	/**
+	 * Loads the scene from its cache, or parses it and writes the cache.
+	 */
+	static Scene load(File sceneFile) throws IOException, RayTracerException {
+		String mode = System.getProperty("raytracer.sceneCache", "full");
+		byte[] text = Files.readAllBytes(sceneFile.toPath());
+		if (mode.equals("off"))
+			return parse(text, sceneFile);
+
+		File cacheFile = getCacheFile(sceneFile);
+		byte[] hash = hash(text);
+		Scene scene = read(cacheFile, hash);
+		if (scene != null)
+			return scene;
+
+		scene = parse(text, sceneFile);
+		try {
+			write(cacheFile, hash, scene, mode.equals("full"));
+		} catch (IOException e) {
+			// read-only directory and the like, the next load parses again
+		}
+		return scene;
+	}
+
+	static File getCacheFile(File sceneFile) {
+		return new File(sceneFile.getPath() + SUFFIX);
+	}
+
+	private static Scene parse(byte[] text, File sceneFile) throws IOException, RayTracerException {
+		return SceneParser.parse(SceneParser.readText(new ByteArrayInputStream(text)), sceneFile.getPath(),
+			sceneFile.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * The cached scene, null if there is no cache for this text and these
+	 * mesh files.
+	 */
+	static Scene read(File cacheFile, byte[] hash) {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			return null;
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC)
+				return null;
+			SceneCodec.checkVersion(buffer);
+			byte[] cachedHash = new byte[hash.length];
+			buffer.get(cachedHash);
+			if (!Arrays.equals(hash, cachedHash))
+				return null;
+
+			int meshCount = buffer.getInt();
+			String[] meshFiles = new String[meshCount];
+			for (int i = 0; i < meshCount; i++) {
+				meshFiles[i] = SceneCodec.readString(buffer);
+				File file = new File(meshFiles[i]);
+				if (file.length() != buffer.getLong() || file.lastModified() != buffer.getLong())
+					return null;
+			}
+
+			Scene scene = SceneCodec.readScene(buffer);
+			scene.meshFiles.addAll(Arrays.asList(meshFiles));
+			return scene;
+		} catch (IOException | BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+			// a cache of an older version, or cut short
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the cache to a temporary file and moves it in place, so that
+	 * concurrent loads see either the old cache or the whole new one.
+	 */
+	static void write(File cacheFile, byte[] hash, Scene scene, boolean trees) throws IOException {
+		Path target = cacheFile.getAbsoluteFile().toPath();
+		Path temp = Files.createTempFile(target.getParent(), cacheFile.getName(), ".tmp");
+		try {
+			try (OutputStream file = Files.newOutputStream(temp);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(SceneCodec.VERSION);
+				out.write(hash);
+				List<String> meshFiles = scene.meshFiles;
+				out.writeInt(meshFiles.size());
+				for (String path : meshFiles) {
+					File mesh = new File(path);
+					out.writeUTF(path);
+					out.writeLong(mesh.length());
+					out.writeLong(mesh.lastModified());
+				}
+				SceneCodec.writeScene(out, scene, trees);
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	static byte[] hash(byte[] text) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(text);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SceneCacheTest {
+
+	private static final String TETRAHEDRON =
+		"v 0 0 0\nv 1 0 0\nv 0 1 0\nv 0 0 1\n" +
+		"f 1 3 2\nf 1 2 4\nf 1 4 3\nf 2 3 4\n";
+
+	private static final String SCENE =
+		"cam 0 2 -10 0 0 0 0 1 0 1.5 1.2\n" +
+		"set 0.1 0.2 0.3 3 3\n" +
+		"mtl 0.9 0.2 0.2 1 1 1 0.2 0.2 0.2 30 0\n" +
+		"mtl 0.2 0.9 0.2 0.5 0.5 0.5 0 0 0 10 0.5\n" +
+		"sph 0 0 0 1 1\n" +
+		"pln 0 1 0 -1 2\n" +
+		"box -3 -0.5 3 1 2 1 0 30 0\n" +
+		"ins 1 -1 1.5 2 0 0 20 0.5 1 0.5 2\n" +
+		"msh tetra.obj 1\n" +
+		"ins 5 2 0 1 10 20 30 1.5 1.5 1.5 2\n" +
+		"lgt 0 5 -5 1 1 1 1 0.8 1\n";
+
+	@Test
+	public void cachedSceneRendersTheSameWithoutRebuilding() throws Exception {
+		File scene = writeScene();
+		File cache = SceneCache.getCacheFile(scene);
+		Scene parsed = RayTracer.parseScene(scene);
+		assertTrue(cache.exists());
+
+		Scene cached = RayTracer.parseScene(scene);
+		assertNotNull(cached.accelerator);
+		assertTrue(cached.accelerator.isFor(cached.primitives));
+		assertEquals(parsed.primitives.size(), cached.primitives.size());
+		assertSame(((Instance) cached.primitives.get(5).shape).shape, cached.primitives.get(4).shape);
+
+		RayTracer tracer = new RayTracer(cached, createSettings());
+		BufferedImage image = render(tracer);
+		assertSame(cached.accelerator, tracer.accelerator);
+		assertSameImage(render(new RayTracer(parsed, createSettings())), image);
+
+		// a scene changed after loading gets a tree of its own
+		cached.primitives.remove(0);
+		tracer = new RayTracer(cached, createSettings());
+		render(tracer);
+		assertNotSame(cached.accelerator, tracer.accelerator);
+	}
+
+	@Test
+	public void changedSceneOrMeshIsParsedAgain() throws Exception {
+		File scene = writeScene();
+		File cache = SceneCache.getCacheFile(scene);
+		byte[] text = Files.readAllBytes(scene.toPath());
+		RayTracer.parseScene(scene);
+		assertNotNull(SceneCache.read(cache, SceneCache.hash(text)));
+
+		Files.write(scene.toPath(), (SCENE + "sph 3 0 0 1 1\n").getBytes("UTF-8"));
+		assertNull(SceneCache.read(cache, SceneCache.hash(Files.readAllBytes(scene.toPath()))));
+		assertEquals(7, RayTracer.parseScene(scene).primitives.size());
+		assertEquals(7, SceneCache.read(cache, SceneCache.hash(Files.readAllBytes(scene.toPath()))).primitives.size());
+
+		File mesh = new File(scene.getParentFile(), "tetra.obj");
+		Files.write(mesh.toPath(), (TETRAHEDRON + "v 1 1 1\nf 2 3 5\n").getBytes("UTF-8"));
+		assertNull(SceneCache.read(cache, SceneCache.hash(Files.readAllBytes(scene.toPath()))));
+		TriangleMesh reloaded = (TriangleMesh) RayTracer.parseScene(scene).primitives.get(4).shape;
+		assertEquals(5, reloaded.getTriangleCount());
+
+		// a cut short cache is ignored
+		byte[] bytes = Files.readAllBytes(cache.toPath());
+		Files.write(cache.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+		assertNull(SceneCache.read(cache, SceneCache.hash(Files.readAllBytes(scene.toPath()))));
+		assertEquals(7, RayTracer.parseScene(scene).primitives.size());
+	}
+
+	private static File writeScene() throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		Files.write(new File(dir, "tetra.obj").toPath(), TETRAHEDRON.getBytes("UTF-8"));
+		File scene = new File(dir, "scene.txt");
+		Files.write(scene.toPath(), SCENE.getBytes("UTF-8"));
+		return scene;
+	}
+
+	private static RenderSettings createSettings() {
+		RenderSettings settings = new RenderSettings(40, 30, 3, 1, false, 1);
+		settings.quiet = true;
+		return settings;
+	}
+
+	private static BufferedImage render(RayTracer tracer) {
+		tracer.renderScene();
+		return tracer.getImage();
+	}
+
+	private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+}
@@ -0,0 +1,427 @@
+package RayTracing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of a scene, sent with the render settings by the coordinator of
+ * a distributed render to its nodes, and kept on disk by SceneCache. Shapes,
+ * lights and the camera are stored as the parameters they were constructed
+ * from, so the decoded scene is built the same way as the original and
+ * renders bit for bit the same image. Materials, and shapes shared by
+ * instances, are stored once and referred to by index.
+ *
+ * Scenes may be written with their trees, the BVH of every mesh and the
+ * scene's Accelerator, so that decoding them skips the builds. Decoding reads
+ * from a ByteBuffer, which may be a mapped file, and copies arrays out of it
+ * in bulk.
+ */
+class SceneCodec {
+
+	static final int VERSION = 7;
+
+	private static final byte SPHERE = 1;
+	private static final byte PLANE  = 2;
+	private static final byte BOX    = 3;
+	private static final byte INSTANCE = 4;
+	// a shape written before, by its number
+	private static final byte SHARED = 5;
+	private static final byte MESH = 6;
+
+	/**
+	 * The scene, without trees, and the settings for a render node.
+	 */
+	static byte[] encode(Scene scene, RenderSettings settings) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(VERSION);
+			writeSettings(out, settings);
+			writeScene(out, scene, false);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a scene written by encode into a tracer set up with the encoded
+	 * render settings.
+	 */
+	static RayTracer decode(byte[] data) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(data);
+		try {
+			checkVersion(in);
+			RenderSettings settings = readSettings(in);
+			return new RayTracer(readScene(in), settings);
+		} catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new IOException("corrupt scene encoding", e);
+		}
+	}
+
+	static void checkVersion(ByteBuffer in) throws IOException {
+		int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("unsupported scene encoding version " + version);
+	}
+
+	/**
+	 * @param trees whether to write the BVHs, building the scene's
+	 * accelerator if it has none
+	 */
+	static void writeScene(DataOutput out, Scene scene, boolean trees) throws IOException {
+		Camera camera = scene.camera;
+		writeVector(out, camera.position);
+		writeVector(out, camera.lookAt);
+		writeVector(out, camera.upDirection);
+		out.writeDouble(camera.screenDistance);
+		out.writeDouble(camera.screenWidth);
+
+		SceneSettings sceneSettings = scene.settings;
+		writeVector(out, sceneSettings.background.rgb);
+		out.writeInt(sceneSettings.shadowRaysNum);
+		out.writeInt(sceneSettings.maxRecursionLevel);
+		out.writeInt(sceneSettings.shadowProbesNum);
+
+		// primitives may use materials that aren't in the list
+		List<Material> materials = new ArrayList<>(scene.materials);
+		Map<Material, Integer> indices = new IdentityHashMap<>();
+		for (int i = 0; i < materials.size(); i++) {
+			indices.putIfAbsent(materials.get(i), i);
+		}
+		for (Primitive primitive : scene.primitives) {
+			if (!indices.containsKey(primitive.material)) {
+				indices.put(primitive.material, materials.size());
+				materials.add(primitive.material);
+			}
+		}
+		out.writeInt(materials.size());
+		for (Material material : materials) {
+			writeVector(out, material.diffuse.rgb);
+			writeVector(out, material.specular.rgb);
+			writeVector(out, material.reflection.rgb);
+			out.writeDouble(material.phong);
+			out.writeDouble(material.trans);
+		}
+
+		out.writeInt(scene.primitives.size());
+		Map<Shape3D, Integer> shapes = new IdentityHashMap<>();
+		for (Primitive primitive : scene.primitives) {
+			writeShape(out, primitive.shape, shapes, trees);
+			out.writeInt(indices.get(primitive.material));
+		}
+
+		out.writeInt(scene.lights.size());
+		for (Light light : scene.lights) {
+			writeVector(out, light.position);
+			writeVector(out, light.color.rgb);
+			out.writeDouble(light.spec);
+			out.writeDouble(light.shadow);
+			out.writeDouble(light.width);
+		}
+
+		out.writeBoolean(trees);
+		if (trees) {
+			if (scene.accelerator == null || !scene.accelerator.isFor(scene.primitives))
+				scene.accelerator = new Accelerator(scene.primitives);
+			BVH bvh = scene.accelerator.bvh;
+			out.writeInt(bvh.nodes);
+			out.writeInt(bvh.depth);
+			writeDoubles(out, bvh.nodeBounds, bvh.nodes*6);
+			writeInts(out, bvh.nodeStart, bvh.nodes);
+			writeInts(out, bvh.nodeCount, bvh.nodes);
+			writeInts(out, bvh.order, bvh.order.length);
+		}
+	}
+
+	/**
+	 * Reads a scene written by writeScene. Throws BufferUnderflowException
+	 * and the like if the buffer is cut short or corrupt.
+	 */
+	static Scene readScene(ByteBuffer in) throws IOException {
+		Scene scene = new Scene();
+		Vector position = readVector(in);
+		Vector lookAt = readVector(in);
+		Vector up = readVector(in);
+		scene.camera = new Camera(
+			position.x, position.y, position.z,
+			lookAt.x, lookAt.y, lookAt.z,
+			up.x, up.y, up.z,
+			in.getDouble(), in.getDouble());
+
+		Vector background = readVector(in);
+		scene.settings = new SceneSettings(background.x, background.y, background.z, in.getInt(), in.getInt());
+		scene.settings.shadowProbesNum = in.getInt();
+
+		int materialCount = in.getInt();
+		for (int i = 0; i < materialCount; i++) {
+			Vector diffuse = readVector(in);
+			Vector specular = readVector(in);
+			Vector reflection = readVector(in);
+			scene.materials.add(new Material(
+				diffuse.x, diffuse.y, diffuse.z,
+				specular.x, specular.y, specular.z,
+				reflection.x, reflection.y, reflection.z,
+				in.getDouble(), in.getDouble()));
+		}
+
+		int primitiveCount = in.getInt();
+		List<Shape3D> shapes = new ArrayList<>();
+		for (int i = 0; i < primitiveCount; i++) {
+			Shape3D shape = readShape(in, shapes);
+			int material = in.getInt();
+			if (material < 0 || material >= materialCount)
+				throw new IOException("material index " + material + " out of range");
+			scene.primitives.add(new Primitive(shape, scene.materials.get(material)));
+		}
+
+		int lightCount = in.getInt();
+		for (int i = 0; i < lightCount; i++) {
+			Vector lightPosition = readVector(in);
+			Vector color = readVector(in);
+			scene.lights.add(new Light(
+				lightPosition.x, lightPosition.y, lightPosition.z,
+				color.x, color.y, color.z,
+				in.getDouble(), in.getDouble(), in.getDouble()));
+		}
+
+		if (in.get() != 0) {
+			int nodes = in.getInt();
+			int depth = in.getInt();
+			BVH bvh = new BVH(readDoubles(in), readInts(in), readInts(in), readInts(in), depth);
+			if (bvh.nodes != nodes)
+				throw new IOException("corrupt BVH");
+			scene.accelerator = new Accelerator(scene.primitives, bvh);
+		}
+		return scene;
+	}
+
+	// everything that changes the pixels; threads, progress output and
+	// metrics are up to each node
+	private static void writeSettings(DataOutput out, RenderSettings settings) throws IOException {
+		out.writeInt(settings.imageWidth);
+		out.writeInt(settings.imageHeight);
+		out.writeInt(settings.maxRecursionLevel);
+		out.writeBoolean(settings.antiAliasing);
+		out.writeInt(settings.numOfSamples);
+		out.writeInt(settings.tileSize);
+		out.writeBoolean(settings.adaptive);
+		out.writeInt(settings.minSamples);
+		out.writeDouble(settings.adaptiveThreshold);
+		out.writeDouble(settings.minRayWeight);
+		out.writeBoolean(settings.russianRoulette);
+		out.writeUTF(settings.sampler);
+		out.writeLong(settings.seed);
+		out.writeBoolean(settings.packets);
+		out.writeBoolean(settings.recursiveTracing);
+	}
+
+	private static RenderSettings readSettings(ByteBuffer in) {
+		int width = in.getInt();
+		int height = in.getInt();
+		int recursion = in.getInt();
+		boolean antiAliasing = in.get() != 0;
+		int samples = in.getInt();
+		RenderSettings settings = new RenderSettings(width, height, recursion,
+			Runtime.getRuntime().availableProcessors(), antiAliasing, samples);
+		settings.tileSize = in.getInt();
+		settings.adaptive = in.get() != 0;
+		settings.minSamples = in.getInt();
+		settings.adaptiveThreshold = in.getDouble();
+		settings.minRayWeight = in.getDouble();
+		settings.russianRoulette = in.get() != 0;
+		settings.sampler = readString(in);
+		settings.seed = in.getLong();
+		settings.packets = in.get() != 0;
+		settings.recursiveTracing = in.get() != 0;
+		return settings;
+	}
+
+	private static void writeShape(DataOutput out, Shape3D shape, Map<Shape3D, Integer> shapes,
+			boolean trees) throws IOException {
+		Integer index = shapes.get(shape);
+		if (index != null) {
+			out.writeByte(SHARED);
+			out.writeInt(index);
+			return;
+		}
+
+		if (shape instanceof Sphere) {
+			Sphere sphere = (Sphere) shape;
+			out.writeByte(SPHERE);
+			writeVector(out, sphere.center);
+			out.writeDouble(sphere.radius);
+		}
+		else if (shape instanceof Plane) {
+			Plane plane = (Plane) shape;
+			out.writeByte(PLANE);
+			writeVector(out, plane.normal);
+			out.writeDouble(plane.offset);
+		}
+		else if (shape instanceof Box) {
+			Box box = (Box) shape;
+			out.writeByte(BOX);
+			writeVector(out, box.position);
+			writeVector(out, box.size);
+			writeVector(out, box.rotation);
+		}
+		else if (shape instanceof Instance) {
+			Instance instance = (Instance) shape;
+			out.writeByte(INSTANCE);
+			for (double value : instance.transform.getMatrix()) {
+				out.writeDouble(value);
+			}
+			writeShape(out, instance.shape, shapes, trees);
+		}
+		else if (shape instanceof TriangleMesh) {
+			TriangleMesh mesh = (TriangleMesh) shape;
+			out.writeByte(MESH);
+			writeFloats(out, mesh.vertices);
+			writeInts(out, mesh.triangles, mesh.triangles.length);
+			out.writeBoolean(mesh.normals != null);
+			if (mesh.normals != null) {
+				writeFloats(out, mesh.normals);
+				writeInts(out, mesh.normalIndices, mesh.normalIndices.length);
+			}
+			out.writeBoolean(trees);
+			if (trees) {
+				writeFloats(out, mesh.nodeBounds);
+				writeInts(out, mesh.nodeStart, mesh.nodeStart.length);
+				writeInts(out, mesh.nodeCount, mesh.nodeCount.length);
+				writeInts(out, mesh.nodeSkip, mesh.nodeSkip.length);
+			}
+		}
+		else {
+			throw new IOException("can't encode " + shape.getClass().getSimpleName());
+		}
+		// numbered once written, so an instance comes after its shape
+		shapes.put(shape, shapes.size());
+	}
+
+	private static Shape3D readShape(ByteBuffer in, List<Shape3D> shapes) throws IOException {
+		byte kind = in.get();
+		Shape3D shape;
+		switch (kind) {
+			case SHARED: {
+				int index = in.getInt();
+				if (index < 0 || index >= shapes.size())
+					throw new IOException("shape " + index + " out of range");
+				return shapes.get(index);
+			}
+			case SPHERE: {
+				Vector center = readVector(in);
+				shape = new Sphere(center.x, center.y, center.z, in.getDouble());
+				break;
+			}
+			case PLANE: {
+				Vector normal = readVector(in);
+				shape = new Plane(normal, in.getDouble());
+				break;
+			}
+			case BOX: {
+				Vector position = readVector(in);
+				Vector size = readVector(in);
+				Vector rotation = readVector(in);
+				shape = new Box(position.x, position.y, position.z,
+					size.x, size.y, size.z,
+					rotation.x, rotation.y, rotation.z);
+				break;
+			}
+			case INSTANCE: {
+				double[] matrix = new double[12];
+				in.asDoubleBuffer().get(matrix);
+				in.position(in.position() + matrix.length*8);
+				shape = new Instance(readShape(in, shapes), new Transform(matrix));
+				break;
+			}
+			case MESH: {
+				float[] vertices = readFloats(in);
+				int[] triangles = readInts(in);
+				float[] normals = null;
+				int[] normalIndices = null;
+				if (in.get() != 0) {
+					normals = readFloats(in);
+					normalIndices = readInts(in);
+				}
+				if (in.get() != 0) {
+					shape = new TriangleMesh(vertices, triangles, normals, normalIndices,
+						readFloats(in), readInts(in), readInts(in), readInts(in));
+				}
+				else {
+					shape = TriangleMesh.build(vertices, triangles, normals, normalIndices);
+				}
+				break;
+			}
+			default:
+				throw new IOException("unknown shape " + kind);
+		}
+		shapes.add(shape);
+		return shape;
+	}
+
+	// written by DataOutput.writeUTF, whose encoding is UTF-8 but for NUL and
+	// characters outside the basic plane
+	static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getShort() & 0xffff];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeFloats(DataOutput out, float[] values) throws IOException {
+		out.writeInt(values.length);
+		for (float value : values) {
+			out.writeFloat(value);
+		}
+	}
+
+	private static float[] readFloats(ByteBuffer in) {
+		float[] values = new float[in.getInt()];
+		in.asFloatBuffer().get(values);
+		in.position(in.position() + values.length*4);
+		return values;
+	}
+
+	private static void writeDoubles(DataOutput out, double[] values, int length) throws IOException {
+		out.writeInt(length);
+		for (int i = 0; i < length; i++) {
+			out.writeDouble(values[i]);
+		}
+	}
+
+	private static double[] readDoubles(ByteBuffer in) {
+		double[] values = new double[in.getInt()];
+		in.asDoubleBuffer().get(values);
+		in.position(in.position() + values.length*8);
+		return values;
+	}
+
+	private static void writeInts(DataOutput out, int[] values, int length) throws IOException {
+		out.writeInt(length);
+		for (int i = 0; i < length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length*4);
+		return values;
+	}
+
+	private static void writeVector(DataOutput out, Vector v) throws IOException {
+		out.writeDouble(v.x);
+		out.writeDouble(v.y);
+		out.writeDouble(v.z);
+	}
+
+	private static Vector readVector(ByteBuffer in) {
+		return new Vector(in.getDouble(), in.getDouble(), in.getDouble());
+	}
+}
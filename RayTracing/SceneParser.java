@@ -0,0 +1,359 @@
+package RayTracing;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import RayTracing.RayTracer.RayTracerException;
+
+/**
+ * Parser of text scene files. Lines are scanned and numbers parsed straight
+ * from the bytes, without splitting lines into strings.
+ *
+ * Large scenes are split into chunks at line ends, which are parsed in
+ * parallel. Every chunk builds its own shapes, materials and lights and
+ * notes the material numbers its primitives use. The chunks are then joined
+ * in order, and only then are material numbers, instances and meshes
+ * resolved, so materials may be defined after the primitives that use them.
+ * Errors name the file and the line.
+ */
+class SceneParser {
+
+	// scenes smaller than this are parsed on the calling thread
+	static final int PARALLEL_THRESHOLD = 1 << 20;
+	private static final int MIN_CHUNK_SIZE = 1 << 18;
+
+	private static final int CAM = code("cam"), SET = code("set"), MTL = code("mtl"),
+		SPH = code("sph"), PLN = code("pln"), BOX = code("box"), INS = code("ins"),
+		MSH = code("msh"), LGT = code("lgt");
+
+	/**
+	 * Reads the whole stream, inflating it if it is gzip compressed.
+	 */
+	static byte[] readText(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+		buffered.mark(2);
+		int first = buffered.read();
+		int second = buffered.read();
+		buffered.reset();
+		if (first == 0x1f && second == 0x8b)
+			return new GZIPInputStream(buffered, 1 << 16).readAllBytes();
+		return buffered.readAllBytes();
+	}
+
+	/**
+	 * @param name file name for error messages
+	 * @param directory where mesh files are looked up, null for the working
+	 * directory
+	 */
+	static Scene parse(byte[] text, String name, File directory) throws IOException, RayTracerException {
+		Chunk[] chunks = split(text);
+		if (chunks.length == 1)
+			chunks[0].parse();
+		else
+			Arrays.stream(chunks).parallel().forEach(Chunk::parse);
+
+		// first line of every chunk
+		int[] lineOffsets = new int[chunks.length];
+		for (int i = 1; i < chunks.length; i++) {
+			lineOffsets[i] = lineOffsets[i-1] + chunks[i-1].lines;
+		}
+
+		Scene scene = new Scene();
+		for (int i = 0; i < chunks.length; i++) {
+			Chunk chunk = chunks[i];
+			for (int j = 0; j < chunk.unknownLines.size(); j++) {
+				System.out.println(String.format("ERROR: Did not recognize object: %s (line %d)",
+					chunk.unknownCodes.get(j), lineOffsets[i] + chunk.unknownLines.get(j)));
+			}
+			if (chunk.error != null)
+				throw new RayTracerException(name + ":" + (lineOffsets[i] + chunk.errorLine) + ": " + chunk.error);
+			if (chunk.camera != null)
+				scene.camera = chunk.camera;
+			if (chunk.settings != null)
+				scene.settings = chunk.settings;
+			scene.materials.addAll(chunk.materials);
+			scene.lights.addAll(chunk.lights);
+		}
+
+		// meshes referenced more than once are loaded once and shared
+		Map<String, TriangleMesh> meshes = new HashMap<>();
+		for (int i = 0; i < chunks.length; i++) {
+			for (Pending pending : chunks[i].primitives) {
+				String where = name + ":" + (lineOffsets[i] + pending.line) + ": ";
+				Shape3D shape = pending.shape;
+				if (pending.meshFile != null) {
+					File meshFile = new File(pending.meshFile);
+					if (!meshFile.isAbsolute() && directory != null)
+						meshFile = new File(directory, pending.meshFile);
+					String path = meshFile.getPath();
+					shape = meshes.get(path);
+					if (shape == null) {
+						TriangleMesh mesh = ObjLoader.load(path);
+						meshes.put(path, mesh);
+						scene.meshFiles.add(meshFile.getAbsolutePath());
+						shape = mesh;
+					}
+				}
+				else if (pending.transform != null) {
+					if (pending.instanceOf < 1 || pending.instanceOf > scene.primitives.size())
+						throw new RayTracerException(where + "primitive " + pending.instanceOf + " is undefined");
+					shape = new Instance(scene.primitives.get(pending.instanceOf - 1).shape, pending.transform);
+				}
+				if (pending.material < 1 || pending.material > scene.materials.size())
+					throw new RayTracerException(where + "material " + pending.material + " is undefined");
+				scene.primitives.add(new Primitive(shape, scene.materials.get(pending.material - 1)));
+			}
+		}
+
+		if (scene.camera == null)
+			throw new RayTracerException("camera is undefined");
+		return scene;
+	}
+
+	// ends every chunk but the last one after a line end
+	private static Chunk[] split(byte[] text) {
+		if (text.length < PARALLEL_THRESHOLD)
+			return new Chunk[] {new Chunk(text, 0, text.length)};
+
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, text.length / (parallelism*4));
+		List<Chunk> chunks = new ArrayList<>();
+		int start = 0;
+		while (start < text.length) {
+			int end = Math.min(text.length, start + chunkSize);
+			while (end < text.length && text[end-1] != '\n')
+				end++;
+			chunks.add(new Chunk(text, start, end));
+			start = end;
+		}
+		return chunks.toArray(new Chunk[0]);
+	}
+
+	private static int code(String code) {
+		return code.charAt(0) << 16 | code.charAt(1) << 8 | code.charAt(2);
+	}
+
+	/**
+	 * A primitive of a chunk, with the shape built unless it is an instance
+	 * or a mesh.
+	 */
+	private static class Pending {
+		final int line;
+		final int material;
+		Shape3D shape;
+		int instanceOf;
+		Transform transform;
+		String meshFile;
+
+		Pending(int line, int material) {
+			this.line = line;
+			this.material = material;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class ParseError extends Exception {
+		ParseError(String message) {
+			super(message, null, false, false);
+		}
+	}
+
+	private static class Chunk {
+		private final byte[] text;
+		private final int start, end;
+
+		// the current line is text[lineStart, lineEnd), pos is the next token
+		private int pos, lineStart, lineEnd;
+		// lines in the chunk, and the line numbers below, count from 1
+		int lines;
+
+		Camera camera;
+		SceneSettings settings;
+		final List<Material> materials = new ArrayList<>();
+		final List<Light> lights = new ArrayList<>();
+		final List<Pending> primitives = new ArrayList<>();
+		final List<Integer> unknownLines = new ArrayList<>();
+		final List<String> unknownCodes = new ArrayList<>();
+		String error;
+		int errorLine;
+
+		Chunk(byte[] text, int start, int end) {
+			this.text = text;
+			this.start = start;
+			this.end = end;
+		}
+
+		void parse() {
+			lineEnd = start - 1;
+			while (lineEnd < end) {
+				lineStart = lineEnd + 1;
+				if (lineStart >= end)
+					break;
+				lineEnd = lineStart;
+				while (lineEnd < end && text[lineEnd] != '\n')
+					lineEnd++;
+				lines++;
+				try {
+					parseLine();
+				} catch (ParseError e) {
+					error = e.getMessage();
+					errorLine = lines;
+					return;
+				}
+			}
+		}
+
+		private void parseLine() throws ParseError {
+			pos = lineStart;
+			skipSpaces();
+			if (pos == lineEnd || text[pos] == '#')
+				return;
+
+			// the code is the first 3 characters, as in "sph1 2 3 0.5 1"
+			if (lineEnd - pos < 3) {
+				unknown();
+				return;
+			}
+			int code = lower(text[pos]) << 16 | lower(text[pos+1]) << 8 | lower(text[pos+2]);
+			pos += 3;
+
+			if (code == CAM) {
+				camera = new Camera(number(), number(), number(), number(), number(), number(),
+					number(), number(), number(), number(), number());
+			}
+			else if (code == SET) {
+				settings = new SceneSettings(number(), number(), number(), integer(), integer());
+				if (hasToken())
+					settings.shadowProbesNum = integer();
+			}
+			else if (code == MTL) {
+				materials.add(new Material(number(), number(), number(), number(), number(), number(),
+					number(), number(), number(), number(), number()));
+			}
+			else if (code == SPH) {
+				Sphere sphere = new Sphere(number(), number(), number(), number());
+				add(integer()).shape = sphere;
+			}
+			else if (code == PLN) {
+				Plane plane = new Plane(number(), number(), number(), number());
+				add(integer()).shape = plane;
+			}
+			else if (code == BOX) {
+				// boxes always have the first material
+				Box box = new Box(number(), number(), number(), number(), number(), number(),
+					number(), number(), number());
+				add(1).shape = box;
+			}
+			else if (code == INS) {
+				int primitive = integer();
+				Transform transform;
+				try {
+					transform = Transform.of(number(), number(), number(), number(), number(), number(),
+						number(), number(), number());
+				} catch (IllegalArgumentException e) {
+					throw new ParseError(e.getMessage());
+				}
+				Pending instance = add(integer());
+				instance.instanceOf = primitive;
+				instance.transform = transform;
+			}
+			else if (code == MSH) {
+				String file = token();
+				add(integer()).meshFile = file;
+			}
+			else if (code == LGT) {
+				lights.add(new Light(number(), number(), number(), number(), number(), number(),
+					number(), number(), number()));
+			}
+			else {
+				unknown();
+			}
+		}
+
+		private Pending add(int material) {
+			Pending pending = new Pending(lines, material);
+			primitives.add(pending);
+			return pending;
+		}
+
+		private void unknown() {
+			int codeEnd = Math.min(lineEnd, pos + 3);
+			unknownLines.add(lines);
+			unknownCodes.add(new String(text, pos, codeEnd - pos, StandardCharsets.UTF_8).trim().toLowerCase());
+		}
+
+		private void skipSpaces() {
+			pos = Numbers.skipSpaces(text, pos, lineEnd);
+		}
+
+		// whether the line has another parameter
+		private boolean hasToken() {
+			skipSpaces();
+			return pos < lineEnd && text[pos] != '#';
+		}
+
+		// start of the next token, which ends at pos
+		private int nextToken(String expected) throws ParseError {
+			skipSpaces();
+			int tokenStart = pos;
+			pos = Numbers.tokenEnd(text, pos, lineEnd);
+			if (pos == tokenStart)
+				throw new ParseError("expected " + expected);
+			return tokenStart;
+		}
+
+		private String token() throws ParseError {
+			int tokenStart = nextToken("a file name");
+			return new String(text, tokenStart, pos - tokenStart, StandardCharsets.UTF_8);
+		}
+
+		private int integer() throws ParseError {
+			int tokenStart = nextToken("an integer");
+			int i = tokenStart;
+			boolean negative = false;
+			if (text[i] == '-' || text[i] == '+')
+				negative = text[i++] == '-';
+			long value = 0;
+			if (i == pos || pos - i > 9)
+				return slowInteger(tokenStart);
+			for (; i < pos; i++) {
+				int digit = text[i] - '0';
+				if (digit < 0 || digit > 9)
+					return slowInteger(tokenStart);
+				value = value*10 + digit;
+			}
+			return (int) (negative ? -value : value);
+		}
+
+		private int slowInteger(int tokenStart) throws ParseError {
+			String token = new String(text, tokenStart, pos - tokenStart, StandardCharsets.UTF_8);
+			try {
+				return Integer.parseInt(token);
+			} catch (NumberFormatException e) {
+				throw new ParseError("bad integer '" + token + "'");
+			}
+		}
+
+		private double number() throws ParseError {
+			int tokenStart = nextToken("a number");
+			try {
+				return Numbers.parseDouble(text, tokenStart, pos);
+			} catch (NumberFormatException e) {
+				throw new ParseError("bad number '" + new String(text, tokenStart, pos - tokenStart, StandardCharsets.UTF_8) + "'");
+			}
+		}
+
+		private static int lower(byte b) {
+			return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import RayTracing.RayTracer.RayTracerException;
+
+public class SceneParserTest {
+
+	private static final String HEADER =
+		"cam 0 2 -10 0 0 0 0 1 0 1.5 1.2\n" +
+		"set 0.1 0.2 0.3 2 3\n";
+
+	@Test
+	public void numbersAreParsedLikeDoubleParseDouble() throws Exception {
+		SplittableRandom random = new SplittableRandom(3);
+		String[] formats = {"%.6f", "%.17g", "%e", "%.3E", "%.0f", "%.20f"};
+		StringBuilder text = new StringBuilder(HEADER + "mtl 1 1 1 1 1 1 1 1 1 1 0\n");
+		String[][] numbers = new String[2000][];
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = new String[4];
+			for (int j = 0; j < 4; j++) {
+				double value = random.nextDouble(-1, 1) * Math.pow(10, random.nextInt(-30, 30));
+				numbers[i][j] = i % 7 == 0 ? Double.toString(value)
+					: String.format(Locale.ROOT, formats[random.nextInt(formats.length)], value);
+			}
+			text.append("Sph ").append(String.join("\t ", numbers[i])).append(" 1\r\n");
+		}
+		text.append("sph -0 +1.5 .5 5. 1\n");
+		Scene scene = parse(text.toString());
+
+		for (int i = 0; i < numbers.length; i++) {
+			Sphere sphere = (Sphere) scene.primitives.get(i).shape;
+			assertEquals(numbers[i][0], Double.parseDouble(numbers[i][0]), sphere.center.x, 0);
+			assertEquals(numbers[i][1], Double.parseDouble(numbers[i][1]), sphere.center.y, 0);
+			assertEquals(numbers[i][2], Double.parseDouble(numbers[i][2]), sphere.center.z, 0);
+			assertEquals(numbers[i][3], Double.parseDouble(numbers[i][3]), sphere.radius, 0);
+		}
+		Sphere last = (Sphere) scene.primitives.get(numbers.length).shape;
+		assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(last.center.x));
+		assertEquals(1.5, last.center.y, 0);
+		assertEquals(0.5, last.center.z, 0);
+		assertEquals(5, last.radius, 0);
+	}
+
+	@Test
+	public void largeScenesAreParsedInChunksAndResolvedInOrder() throws Exception {
+		StringBuilder text = new StringBuilder(HEADER);
+		int spheres = SceneParser.PARALLEL_THRESHOLD / 20;
+		for (int i = 0; i < spheres; i++) {
+			// materials are defined at the end
+			text.append("sph ").append(i).append(" 0.25 1.5 0.125 ").append(i % 3 + 1).append('\n');
+		}
+		text.append("ins 1 0 0 0 0 0 0 1 1 1 2\n");
+		text.append("mtl 1 0 0 0 0 0 0 0 0 1 0\nmtl 0 1 0 0 0 0 0 0 0 1 0\nmtl 0 0 1 0 0 0 0 0 0 1 0\n");
+		text.append("lgt 0 5 -5 1 1 1 1 0.8 1\n");
+		assertTrue(text.length() > SceneParser.PARALLEL_THRESHOLD);
+
+		Scene scene = parse(text.toString());
+		assertEquals(spheres + 1, scene.primitives.size());
+		for (int i = 0; i < spheres; i++) {
+			Primitive primitive = scene.primitives.get(i);
+			assertEquals(i, ((Sphere) primitive.shape).center.x, 0);
+			assertSame(scene.materials.get(i % 3), primitive.material);
+		}
+		Instance instance = (Instance) scene.primitives.get(spheres).shape;
+		assertSame(scene.primitives.get(0).shape, instance.shape);
+		assertEquals(1, scene.lights.size());
+
+		// an error in a later chunk has its line in the file
+		int line = 2 + spheres - 10;
+		int at = 0;
+		for (int i = 1; i < line; i++)
+			at = text.indexOf("\n", at) + 1;
+		text.insert(at + 4, "x");
+		assertError(text.toString(), "big.txt:" + line + ": bad number 'x" + (spheres - 11) + "'");
+	}
+
+	@Test
+	public void malformedLinesAreReportedWithTheirLine() throws Exception {
+		assertError(HEADER + "sph 1 2 3 4\n", "big.txt:3: expected an integer");
+		assertError(HEADER + "sph 1 2 3 1 2\nmtl 1 1 1 1 1 1 1 1 1 1 0\n", "big.txt:3: material 2 is undefined");
+		assertError(HEADER + "\n# comment\nins 1 0 0 0 0 0 0 1 1 1 1\n", "big.txt:5: primitive 1 is undefined");
+		assertError(HEADER + "mtl 1 1 1 1 1 1 1 1 1 1 0\nsph 1 2 3 4 1.5\n", "big.txt:4: bad integer '1.5'");
+		assertError(HEADER + "mtl 1 1 1 1 1 1 1 1 1 1 0\nsph 1 2 3 1 1\nins 1 0 0 0 0 0 0 0 1 1 1\n",
+			"big.txt:5: singular transform");
+		// short and unknown lines are skipped, as before
+		assertEquals(0, parse(HEADER + "sp\nfoo 1 2\n").primitives.size());
+	}
+
+	@Test
+	public void gzipScenesAreInflated() throws Exception {
+		String text = HEADER + "mtl 1 1 1 1 1 1 1 1 1 1 0\nsph 1 2 3 0.5 1\nlgt 0 5 -5 1 1 1 1 0.8 1\n";
+		File dir = Files.createTempDirectory("gzip").toFile();
+		File plain = new File(dir, "scene.txt");
+		Files.write(plain.toPath(), text.getBytes("UTF-8"));
+		File compressed = new File(dir, "scene.txt.gz");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(text.getBytes("UTF-8"));
+		}
+		Files.write(compressed.toPath(), bytes.toByteArray());
+
+		Scene scene = RayTracer.parseScene(compressed);
+		assertEquals(1, scene.primitives.size());
+		assertEquals(3, ((Sphere) scene.primitives.get(0).shape).center.z, 0);
+		assertEquals(RayTracer.parseScene(plain).lights.size(), scene.lights.size());
+	}
+
+	private static Scene parse(String text) throws Exception {
+		return SceneParser.parse(text.getBytes("UTF-8"), "big.txt", null);
+	}
+
+	private static void assertError(String text, String message) throws Exception {
+		try {
+			parse(text);
+			fail();
+		} catch (RayTracerException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+}
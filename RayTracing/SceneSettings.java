@@ -4,6 +4,11 @@ public class SceneSettings {
 	Color background;
 	final int shadowRaysNum;
 	final int maxRecursionLevel;
+	// soft shadows: rays per side of a first, coarse grid on the light. If
+	// they all see the same, the hit is fully lit or in umbra and the full
+	// grid of shadowRaysNum per side is only cast otherwise. 0 always casts
+	// the full grid.
+	int shadowProbesNum = 3;
 
 	SceneSettings(
 		double red, double green, double blue,
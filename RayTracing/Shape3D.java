@@ -2,7 +2,40 @@ package RayTracing;
 
 public abstract class Shape3D {
 
-	abstract double getHitDistance(Ray ray);
+	double getHitDistance(Ray ray) {
+		return getHitDistance(ray.p0.x, ray.p0.y, ray.p0.z, ray.dir.x, ray.dir.y, ray.dir.z);
+	}
+
+	/**
+	 * Distance along the ray (o, d) to the surface, or -1 if it misses.
+	 * d must be of unit length.
+	 */
+	abstract double getHitDistance(double ox, double oy, double oz, double dx, double dy, double dz);
+
 	abstract Vector getNormalAtSurfacePoint(Vector point);
+
+	/**
+	 * Sets the normal of the hit from its intersection point. The normal
+	 * doesn't have to be of unit length.
+	 */
+	abstract void setNormal(Hit hit);
+
+	/**
+	 * Same as setNormal(hit) for a hit of the ray (o, d). Shapes that have to
+	 * know which of their parts the ray hit, meshes, trace it again.
+	 */
+	void setNormal(Hit hit, double ox, double oy, double oz, double dx, double dy, double dz) {
+		setNormal(hit);
+	}
+
+	abstract BoundingBox getBounds();
+
+	/**
+	 * False if the shape surely misses the box, which is inside its bounds.
+	 * Shapes with infinite bounds tell better than the bounds do.
+	 */
+	boolean mayCross(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		return true;
+	}
 	
 }
@@ -0,0 +1,56 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class SoftShadowTest {
+
+	private static final int WIDTH = 64, HEIGHT = 48;
+
+	@Test
+	public void probesSkipTheFullGridOutsideThePenumbra() {
+		RayTracer full = render(0);
+		RayTracer adaptive = render(3);
+		long fullRays = full.getMetrics().getShadowRays();
+		long adaptiveRays = adaptive.getMetrics().getShadowRays();
+		assertTrue(adaptiveRays + " of " + fullRays + " shadow rays", adaptiveRays*5 < fullRays);
+
+		BufferedImage expected = full.getImage();
+		BufferedImage actual = adaptive.getImage();
+		long sum = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int p = expected.getRGB(x, y), q = actual.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8) {
+					int diff = Math.abs((p >> shift & 255) - (q >> shift & 255));
+					assertTrue("pixel " + x + "," + y + " differs by " + diff, diff <= 40);
+					sum += diff;
+				}
+			}
+		}
+		assertTrue("mean difference " + (double) sum / (WIDTH*HEIGHT*3), sum < WIDTH*HEIGHT*3);
+	}
+
+	private static RayTracer render(int probes) {
+		Scene scene = new Scene();
+		scene.camera = new Camera(0, 3, -6, 0, 0, 0, 0, 1, 0, 1.5, 1.2);
+		scene.settings = new SceneSettings(0.1, 0.2, 0.3, 12, 2);
+		scene.settings.shadowProbesNum = probes;
+		Material red = new Material(0.9, 0.2, 0.2, 0, 0, 0, 0, 0, 0, 10, 0);
+		Material grey = new Material(0.7, 0.7, 0.7, 0, 0, 0, 0, 0, 0, 1, 0);
+		scene.materials.add(red);
+		scene.materials.add(grey);
+		scene.primitives.add(new Primitive(new Sphere(0, 0.2, 0, 0.8), red));
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), grey));
+		scene.lights.add(new Light(0, 4, -1, 1, 1, 1, 0, 0.9, 1));
+
+		RenderSettings settings = new RenderSettings(WIDTH, HEIGHT, 2, 1, false, 1);
+		settings.quiet = true;
+		RayTracer tracer = new RayTracer(scene, settings);
+		tracer.renderScene();
+		return tracer;
+	}
+}
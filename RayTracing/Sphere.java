@@ -1,17 +1,21 @@
 package RayTracing;
 
 public class Sphere extends Shape3D {
-	private final Vector center;
-	private final double radius;
+	final Vector center;
+	final double radius;
 
 	Sphere(double x, double y, double z, double radius) {
 		center = new Vector(x, y, z);
 		this.radius = radius;
 	}
 
-	public double getHitDistance(Ray ray) {
-	    double b = ray.p0.subtract(center).dot(ray.dir);
-	    double c = center.distSquared(ray.p0) - radius*radius;
+	@Override
+	double getHitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		double ocx = ox - center.x;
+		double ocy = oy - center.y;
+		double ocz = oz - center.z;
+	    double b = ocx*dx + ocy*dy + ocz*dz;
+	    double c = ocx*ocx + ocy*ocy + ocz*ocz - radius*radius;
 
 	    double discriminant = b*b-c;
 	    if (discriminant < 0.0)
@@ -38,4 +42,18 @@ public class Sphere extends Shape3D {
 	Vector getNormalAtSurfacePoint(Vector point) {
 		return point.subtract(center);
 	}
+
+	@Override
+	void setNormal(Hit hit) {
+		hit.nx = hit.x - center.x;
+		hit.ny = hit.y - center.y;
+		hit.nz = hit.z - center.z;
+	}
+
+	@Override
+	BoundingBox getBounds() {
+		return new BoundingBox(
+			center.x-radius, center.y-radius, center.z-radius,
+			center.x+radius, center.y+radius, center.z+radius);
+	}
 }
@@ -0,0 +1,49 @@
+package RayTracing;
+
+/**
+ * Latin hypercube samples: for every dimension, the samples of a pixel fall
+ * in different strata of width 1/count, jittered inside their stratum. Pairs
+ * of dimensions step through the strata at different strides, so the pixel
+ * jitter (dimensions 0 and 1) forms a rotated lattice instead of a diagonal.
+ * Each pixel and dimension starts at a random stratum.
+ */
+class StratifiedSampler extends Sampler {
+	// stride of the odd dimensions for the last count seen
+	private int strideCount, stride;
+
+	StratifiedSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	double get(int dimension) {
+		if (count == 1)
+			return random(dimension);
+		if (count != strideCount) {
+			strideCount = count;
+			stride = getStride(count);
+		}
+
+		int offset = (int) (pixelRandom(dimension) * count);
+		long step = (dimension & 1) == 0 ? 1 : stride;
+		int stratum = (int) ((index*step + offset) % count);
+		return (stratum + random(dimension)) / count;
+	}
+
+	// stride near count/golden ratio that visits every stratum
+	private static int getStride(int count) {
+		int stride = Math.max(1, (int) Math.round(count * 0.6180339887498949));
+		while (gcd(stride, count) != 1)
+			stride++;
+		return stride;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
@@ -0,0 +1,113 @@
+package RayTracing;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into square tiles and hands them out as fork/join tasks.
+ *
+ * Tiles are visited in Morton (Z) order, so consecutive tiles are close to
+ * each other in the image and the primitives they hit stay in cache. A task
+ * covers a range of that order and splits itself in half until it is down to
+ * a single tile, which lets idle threads steal large neighbouring ranges.
+ */
+class TileScheduler {
+
+	interface TileRenderer {
+		/**
+		 * Renders the pixels x0 <= x < x1, y0 <= y < y1.
+		 */
+		void renderTile(int x0, int y0, int x1, int y1);
+	}
+
+	final int width, height;
+	final int tileSize;
+	final int tilesX, tilesY;
+	// tile indices (tileX + tileY*tilesX) in Morton order
+	private final int[] order;
+
+	TileScheduler(int width, int height, int tileSize) {
+		this.width = width;
+		this.height = height;
+		this.tileSize = Math.max(1, tileSize);
+		tilesX = (width + this.tileSize - 1) / this.tileSize;
+		tilesY = (height + this.tileSize - 1) / this.tileSize;
+
+		long[] keys = new long[tilesX*tilesY];
+		for (int ty = 0; ty < tilesY; ty++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				int tile = tx + ty*tilesX;
+				keys[tile] = (getMortonCode(tx, ty) << 32) | tile;
+			}
+		}
+		Arrays.sort(keys);
+
+		order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			order[i] = (int) keys[i];
+		}
+	}
+
+	int getTileCount() {
+		return order.length;
+	}
+
+	/**
+	 * Task that renders every tile with the given renderer.
+	 */
+	RecursiveAction newTask(TileRenderer renderer) {
+		return new TileTask(renderer, 0, order.length);
+	}
+
+	void renderTile(int index, TileRenderer renderer) {
+		int[] bounds = getTileBounds(index);
+		renderer.renderTile(bounds[0], bounds[1], bounds[2], bounds[3]);
+	}
+
+	/**
+	 * x0, y0, x1, y1 of the index-th tile in Morton order.
+	 */
+	int[] getTileBounds(int index) {
+		int tile = order[index];
+		int x0 = (tile % tilesX) * tileSize;
+		int y0 = (tile / tilesX) * tileSize;
+		return new int[] {x0, y0, Math.min(width, x0 + tileSize), Math.min(height, y0 + tileSize)};
+	}
+
+	private static long getMortonCode(int x, int y) {
+		return spreadBits(x) | (spreadBits(y) << 1);
+	}
+
+	// inserts a zero bit between each of the low 16 bits of v
+	private static long spreadBits(int v) {
+		long x = v & 0xffff;
+		x = (x | (x << 8)) & 0x00ff00ff;
+		x = (x | (x << 4)) & 0x0f0f0f0f;
+		x = (x | (x << 2)) & 0x33333333;
+		x = (x | (x << 1)) & 0x55555555;
+		return x;
+	}
+
+	@SuppressWarnings("serial")
+	private class TileTask extends RecursiveAction {
+		private final TileRenderer renderer;
+		private final int from, to;
+
+		TileTask(TileRenderer renderer, int from, int to) {
+			this.renderer = renderer;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (to > from)
+					renderTile(from, renderer);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TileTask(renderer, from, mid), new TileTask(renderer, mid, to));
+		}
+	}
+}
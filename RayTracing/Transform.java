@@ -0,0 +1,149 @@
+package RayTracing;
+
+/**
+ * Affine transform from object space to world space, stored as the 3x4
+ * matrix m together with its inverse, so that moving points, directions and
+ * normals either way is a few multiplications with no trigonometry.
+ *
+ * Rotations are in degrees, about the x axis first, then y, then z, the same
+ * as Vector.rotate.
+ */
+final class Transform {
+
+	static final Transform IDENTITY = new Transform(new double[] {
+		1, 0, 0, 0,
+		0, 1, 0, 0,
+		0, 0, 1, 0});
+
+	// row major, the last column is the translation
+	final double m00, m01, m02, m03;
+	final double m10, m11, m12, m13;
+	final double m20, m21, m22, m23;
+	// the inverse
+	final double i00, i01, i02, i03;
+	final double i10, i11, i12, i13;
+	final double i20, i21, i22, i23;
+
+	/**
+	 * @param m the 12 entries of the matrix, row by row
+	 */
+	Transform(double[] m) {
+		m00 = m[0]; m01 = m[1]; m02 = m[2];  m03 = m[3];
+		m10 = m[4]; m11 = m[5]; m12 = m[6];  m13 = m[7];
+		m20 = m[8]; m21 = m[9]; m22 = m[10]; m23 = m[11];
+
+		// cofactors of the linear part
+		double c00 = m11*m22 - m12*m21;
+		double c01 = m12*m20 - m10*m22;
+		double c02 = m10*m21 - m11*m20;
+		double det = m00*c00 + m01*c01 + m02*c02;
+		if (det == 0 || Double.isNaN(det))
+			throw new IllegalArgumentException("singular transform");
+		double inv = 1 / det;
+
+		i00 = c00*inv;
+		i01 = (m02*m21 - m01*m22)*inv;
+		i02 = (m01*m12 - m02*m11)*inv;
+		i10 = c01*inv;
+		i11 = (m00*m22 - m02*m20)*inv;
+		i12 = (m02*m10 - m00*m12)*inv;
+		i20 = c02*inv;
+		i21 = (m01*m20 - m00*m21)*inv;
+		i22 = (m00*m11 - m01*m10)*inv;
+		i03 = -(i00*m03 + i01*m13 + i02*m23);
+		i13 = -(i10*m03 + i11*m13 + i12*m23);
+		i23 = -(i20*m03 + i21*m13 + i22*m23);
+	}
+
+	static Transform translation(double x, double y, double z) {
+		return new Transform(new double[] {
+			1, 0, 0, x,
+			0, 1, 0, y,
+			0, 0, 1, z});
+	}
+
+	static Transform scale(double x, double y, double z) {
+		return new Transform(new double[] {
+			x, 0, 0, 0,
+			0, y, 0, 0,
+			0, 0, z, 0});
+	}
+
+	static Transform rotation(double rx, double ry, double rz) {
+		double cx = Math.cos(Math.toRadians(rx)), sx = Math.sin(Math.toRadians(rx));
+		double cy = Math.cos(Math.toRadians(ry)), sy = Math.sin(Math.toRadians(ry));
+		double cz = Math.cos(Math.toRadians(rz)), sz = Math.sin(Math.toRadians(rz));
+		Transform x = new Transform(new double[] {
+			1, 0, 0, 0,
+			0, cx, -sx, 0,
+			0, sx, cx, 0});
+		Transform y = new Transform(new double[] {
+			cy, 0, sy, 0,
+			0, 1, 0, 0,
+			-sy, 0, cy, 0});
+		Transform z = new Transform(new double[] {
+			cz, -sz, 0, 0,
+			sz, cz, 0, 0,
+			0, 0, 1, 0});
+		return x.then(y).then(z);
+	}
+
+	/**
+	 * Scales, then rotates about the origin, then translates.
+	 */
+	static Transform of(double tx, double ty, double tz, double rx, double ry, double rz,
+			double sx, double sy, double sz) {
+		return scale(sx, sy, sz).then(rotation(rx, ry, rz)).then(translation(tx, ty, tz));
+	}
+
+	/**
+	 * The transform that applies this one, then next.
+	 */
+	Transform then(Transform next) {
+		return new Transform(new double[] {
+			next.m00*m00 + next.m01*m10 + next.m02*m20,
+			next.m00*m01 + next.m01*m11 + next.m02*m21,
+			next.m00*m02 + next.m01*m12 + next.m02*m22,
+			next.m00*m03 + next.m01*m13 + next.m02*m23 + next.m03,
+			next.m10*m00 + next.m11*m10 + next.m12*m20,
+			next.m10*m01 + next.m11*m11 + next.m12*m21,
+			next.m10*m02 + next.m11*m12 + next.m12*m22,
+			next.m10*m03 + next.m11*m13 + next.m12*m23 + next.m13,
+			next.m20*m00 + next.m21*m10 + next.m22*m20,
+			next.m20*m01 + next.m21*m11 + next.m22*m21,
+			next.m20*m02 + next.m21*m12 + next.m22*m22,
+			next.m20*m03 + next.m21*m13 + next.m22*m23 + next.m23});
+	}
+
+	double[] getMatrix() {
+		return new double[] {
+			m00, m01, m02, m03,
+			m10, m11, m12, m13,
+			m20, m21, m22, m23};
+	}
+
+	Vector toWorld(Vector point) {
+		return new Vector(
+			m00*point.x + m01*point.y + m02*point.z + m03,
+			m10*point.x + m11*point.y + m12*point.z + m13,
+			m20*point.x + m21*point.y + m22*point.z + m23);
+	}
+
+	Vector toObject(Vector point) {
+		return new Vector(
+			i00*point.x + i01*point.y + i02*point.z + i03,
+			i10*point.x + i11*point.y + i12*point.z + i13,
+			i20*point.x + i21*point.y + i22*point.z + i23);
+	}
+
+	/**
+	 * World space normal of a surface with the given object space normal, by
+	 * the transpose of the inverse. Not of unit length.
+	 */
+	Vector normalToWorld(Vector normal) {
+		return new Vector(
+			i00*normal.x + i10*normal.y + i20*normal.z,
+			i01*normal.x + i11*normal.y + i21*normal.z,
+			i02*normal.x + i12*normal.y + i22*normal.z);
+	}
+}
@@ -0,0 +1,286 @@
+package RayTracing;
+
+/**
+ * Indexed triangle mesh with a BVH of its own, so that it is a single
+ * primitive in the scene however many triangles it has.
+ *
+ * Vertices, normals and bounds are stored as floats and triangles as vertex
+ * indices, all in flat arrays, and triangles are sorted into BVH order so a
+ * leaf covers a range of them. The tree is traversed without a stack, by
+ * skipping to the node after a subtree that the ray misses, so that a mesh
+ * shared by all threads needs no per thread state.
+ *
+ * Shapes only report the distance of a hit, so setNormal traces the ray again
+ * to find the triangle. That costs one traversal per closest hit, none per
+ * shadow ray.
+ */
+public class TriangleMesh extends Shape3D {
+
+	// 3 coordinates per vertex
+	final float[] vertices;
+	// 3 vertex indices per triangle
+	final int[] triangles;
+	// vertex normals for smooth shading, 3 coordinates each, and 3 normal
+	// indices per triangle, or both null for flat shading
+	final float[] normals;
+	final int[] normalIndices;
+
+	// 6 floats per node, min x,y,z then max x,y,z, rounded outwards
+	final float[] nodeBounds;
+	// leaf: first triangle, inner node: 0
+	final int[] nodeStart;
+	// leaf: number of triangles, inner node: 0
+	final int[] nodeCount;
+	// node to go on with after the subtree of every node
+	final int[] nodeSkip;
+	private final BoundingBox bounds;
+
+	/**
+	 * A mesh whose triangles are already in BVH order, with its tree, as
+	 * stored by SceneCodec.
+	 */
+	TriangleMesh(float[] vertices, int[] triangles, float[] normals, int[] normalIndices,
+			float[] nodeBounds, int[] nodeStart, int[] nodeCount, int[] nodeSkip) {
+		this.vertices = vertices;
+		this.triangles = triangles;
+		this.normals = normals;
+		this.normalIndices = normalIndices;
+		this.nodeBounds = nodeBounds;
+		this.nodeStart = nodeStart;
+		this.nodeCount = nodeCount;
+		this.nodeSkip = nodeSkip;
+		if (nodeBounds.length != nodeStart.length*6 || nodeCount.length != nodeStart.length
+				|| nodeSkip.length != nodeStart.length || nodeStart.length == 0)
+			throw new IllegalArgumentException("inconsistent mesh tree");
+		bounds = new BoundingBox(nodeBounds[0], nodeBounds[1], nodeBounds[2],
+			nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+	}
+
+	/**
+	 * Builds the BVH of the triangles and sorts them into its order.
+	 */
+	static TriangleMesh build(float[] vertices, int[] triangles, float[] normals, int[] normalIndices) {
+		int count = triangles.length / 3;
+
+		double[] itemBounds = new double[count*6];
+		for (int t = 0; t < count; t++) {
+			for (int axis = 0; axis < 3; axis++) {
+				double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+				for (int corner = 0; corner < 3; corner++) {
+					double value = vertices[triangles[t*3+corner]*3+axis];
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+				itemBounds[t*6+axis] = min;
+				itemBounds[t*6+axis+3] = max;
+			}
+		}
+		BVH bvh = new BVH(itemBounds, count);
+
+		int[] sorted = new int[triangles.length];
+		int[] sortedNormals = normalIndices == null ? null : new int[normalIndices.length];
+		for (int i = 0; i < count; i++) {
+			int t = bvh.order[i];
+			System.arraycopy(triangles, t*3, sorted, i*3, 3);
+			if (normalIndices != null)
+				System.arraycopy(normalIndices, t*3, sortedNormals, i*3, 3);
+		}
+
+		int nodes = bvh.nodes;
+		float[] nodeBounds = new float[nodes*6];
+		int[] nodeStart = new int[nodes];
+		int[] nodeCount = new int[nodes];
+		int[] nodeSkip = new int[nodes];
+		for (int n = 0; n < nodes; n++) {
+			for (int axis = 0; axis < 3; axis++) {
+				nodeBounds[n*6+axis]   = Math.nextDown((float) bvh.nodeBounds[n*6+axis]);
+				nodeBounds[n*6+axis+3] = Math.nextUp((float) bvh.nodeBounds[n*6+axis+3]);
+			}
+			nodeCount[n] = bvh.nodeCount[n];
+			nodeStart[n] = nodeCount[n] > 0 ? bvh.nodeStart[n] : 0;
+		}
+		// depth first order: a subtree is the node and the ones after it up to
+		// the end of the subtree of its right child
+		for (int n = nodes-1; n >= 0; n--) {
+			nodeSkip[n] = bvh.nodeCount[n] > 0 || count == 0 ? n+1 : nodeSkip[bvh.nodeStart[n]];
+		}
+		return new TriangleMesh(vertices, sorted, normals, sortedNormals, nodeBounds, nodeStart, nodeCount, nodeSkip);
+	}
+
+	int getTriangleCount() {
+		return triangles.length / 3;
+	}
+
+	@Override
+	double getHitDistance(double ox, double oy, double oz, double dx, double dy, double dz) {
+		int triangle = findTriangle(ox, oy, oz, dx, dy, dz);
+		if (triangle < 0)
+			return -1;
+		return intersect(triangle, ox, oy, oz, dx, dy, dz);
+	}
+
+	/**
+	 * Closest triangle the ray hits, -1 if none.
+	 */
+	private int findTriangle(double ox, double oy, double oz, double dx, double dy, double dz) {
+		double invX = BVH.inverse(dx);
+		double invY = BVH.inverse(dy);
+		double invZ = BVH.inverse(dz);
+		double minDist = Double.MAX_VALUE;
+		int closest = -1;
+
+		int nodes = nodeStart.length;
+		int node = 0;
+		while (node < nodes) {
+			int b = node*6;
+			double tx1 = (nodeBounds[b]   - ox)*invX, tx2 = (nodeBounds[b+3] - ox)*invX;
+			double ty1 = (nodeBounds[b+1] - oy)*invY, ty2 = (nodeBounds[b+4] - oy)*invY;
+			double tz1 = (nodeBounds[b+2] - oz)*invZ, tz2 = (nodeBounds[b+5] - oz)*invZ;
+			double tmin = Math.max(Math.max(Math.min(tx1, tx2), Math.min(ty1, ty2)), Math.max(Math.min(tz1, tz2), 0));
+			double tmax = Math.min(Math.min(Math.max(tx1, tx2), Math.max(ty1, ty2)), Math.max(tz1, tz2));
+			if (tmax < tmin || tmin > minDist) {
+				node = nodeSkip[node];
+				continue;
+			}
+
+			int count = nodeCount[node];
+			if (count == 0) {
+				node++;
+				continue;
+			}
+			for (int t = nodeStart[node], end = t + count; t < end; t++) {
+				double dist = intersect(t, ox, oy, oz, dx, dy, dz);
+				if (dist != -1 && dist < minDist) {
+					minDist = dist;
+					closest = t;
+				}
+			}
+			node = nodeSkip[node];
+		}
+		return closest;
+	}
+
+	// Moller-Trumbore, -1 on a miss
+	private double intersect(int t, double ox, double oy, double oz, double dx, double dy, double dz) {
+		int a = triangles[t*3]*3, b = triangles[t*3+1]*3, c = triangles[t*3+2]*3;
+		double ax = vertices[a], ay = vertices[a+1], az = vertices[a+2];
+		double e1x = vertices[b] - ax, e1y = vertices[b+1] - ay, e1z = vertices[b+2] - az;
+		double e2x = vertices[c] - ax, e2y = vertices[c+1] - ay, e2z = vertices[c+2] - az;
+
+		double px = dy*e2z - dz*e2y, py = dz*e2x - dx*e2z, pz = dx*e2y - dy*e2x;
+		double det = e1x*px + e1y*py + e1z*pz;
+		if (det == 0)
+			return -1;
+		double inv = 1 / det;
+
+		double sx = ox - ax, sy = oy - ay, sz = oz - az;
+		double u = (sx*px + sy*py + sz*pz)*inv;
+		if (u < 0 || u > 1)
+			return -1;
+
+		double qx = sy*e1z - sz*e1y, qy = sz*e1x - sx*e1z, qz = sx*e1y - sy*e1x;
+		double v = (dx*qx + dy*qy + dz*qz)*inv;
+		if (v < 0 || u + v > 1)
+			return -1;
+
+		double dist = (e2x*qx + e2y*qy + e2z*qz)*inv;
+		if (dist < RayTracer.EPSILON)
+			return -1;
+		return dist;
+	}
+
+	@Override
+	void setNormal(Hit hit, double ox, double oy, double oz, double dx, double dy, double dz) {
+		int t = findTriangle(ox, oy, oz, dx, dy, dz);
+		if (t < 0) {
+			setNormal(hit);
+			return;
+		}
+		setNormal(hit, t);
+		// face the ray, the triangles have no inside
+		if (hit.nx*dx + hit.ny*dy + hit.nz*dz > 0) {
+			hit.nx = -hit.nx;
+			hit.ny = -hit.ny;
+			hit.nz = -hit.nz;
+		}
+	}
+
+	/**
+	 * Without the ray, the hit is on the triangle whose plane is nearest to
+	 * the point among the ones the point projects into. Slow, for the rare
+	 * callers that have no ray.
+	 */
+	@Override
+	void setNormal(Hit hit) {
+		int nearest = -1;
+		double nearestDist = Double.POSITIVE_INFINITY;
+		for (int t = 0; t < getTriangleCount(); t++) {
+			int a = triangles[t*3]*3, b = triangles[t*3+1]*3, c = triangles[t*3+2]*3;
+			Vector va = new Vector(vertices[a], vertices[a+1], vertices[a+2]);
+			Vector e1 = new Vector(vertices[b], vertices[b+1], vertices[b+2]).subtract(va);
+			Vector e2 = new Vector(vertices[c], vertices[c+1], vertices[c+2]).subtract(va);
+			Vector normal = e1.cross(e2);
+			double area = normal.norm();
+			if (area == 0)
+				continue;
+			normal = normal.scale(1 / area);
+			Vector toPoint = new Vector(hit.x, hit.y, hit.z).subtract(va);
+			double dist = Math.abs(toPoint.dot(normal));
+			// ray along the normal through the point
+			Vector origin = new Vector(hit.x, hit.y, hit.z).subtract(normal.scale(toPoint.dot(normal) + 1));
+			if (dist < nearestDist && intersect(t, origin.x, origin.y, origin.z, normal.x, normal.y, normal.z) != -1) {
+				nearest = t;
+				nearestDist = dist;
+			}
+		}
+		if (nearest < 0) {
+			hit.nx = 0;
+			hit.ny = 0;
+			hit.nz = 0;
+			return;
+		}
+		setNormal(hit, nearest);
+	}
+
+	private void setNormal(Hit hit, int t) {
+		hit.triangle = t;
+		int a = triangles[t*3]*3, b = triangles[t*3+1]*3, c = triangles[t*3+2]*3;
+		double ax = vertices[a], ay = vertices[a+1], az = vertices[a+2];
+		double e1x = vertices[b] - ax, e1y = vertices[b+1] - ay, e1z = vertices[b+2] - az;
+		double e2x = vertices[c] - ax, e2y = vertices[c+1] - ay, e2z = vertices[c+2] - az;
+		double nx = e1y*e2z - e1z*e2y, ny = e1z*e2x - e1x*e2z, nz = e1x*e2y - e1y*e2x;
+
+		if (normals == null) {
+			hit.nx = nx;
+			hit.ny = ny;
+			hit.nz = nz;
+			return;
+		}
+
+		// barycentric coordinates of the hit, from the areas of the sub triangles
+		double squared = nx*nx + ny*ny + nz*nz;
+		double px = hit.x - ax, py = hit.y - ay, pz = hit.z - az;
+		double u = ((py*e2z - pz*e2y)*nx + (pz*e2x - px*e2z)*ny + (px*e2y - py*e2x)*nz) / squared;
+		double v = ((e1y*pz - e1z*py)*nx + (e1z*px - e1x*pz)*ny + (e1x*py - e1y*px)*nz) / squared;
+		double w = 1 - u - v;
+		int na = normalIndices[t*3]*3, nb = normalIndices[t*3+1]*3, nc = normalIndices[t*3+2]*3;
+		hit.nx = normals[na]*w + normals[nb]*u + normals[nc]*v;
+		hit.ny = normals[na+1]*w + normals[nb+1]*u + normals[nc+1]*v;
+		hit.nz = normals[na+2]*w + normals[nb+2]*u + normals[nc+2]*v;
+	}
+
+	@Override
+	Vector getNormalAtSurfacePoint(Vector point) {
+		Hit hit = new Hit();
+		hit.x = point.x;
+		hit.y = point.y;
+		hit.z = point.z;
+		setNormal(hit);
+		return hit.getNormal();
+	}
+
+	@Override
+	BoundingBox getBounds() {
+		return bounds;
+	}
+}
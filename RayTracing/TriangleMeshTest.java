@@ -0,0 +1,113 @@
+package RayTracing;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class TriangleMeshTest {
+
+	// unit cube around (1, 0, 2), quads with mixed index styles
+	private static final String CUBE =
+		"# cube\n" +
+		"o cube\n" +
+		"v 0.5 -0.5 1.5\nv 1.5 -0.5 1.5\nv 1.5 0.5 1.5\nv 0.5 0.5 1.5\n" +
+		"v 0.5 -0.5 2.5\nv 1.5 -0.5 2.5\nv 1.5 0.5 2.5\nv 0.5 0.5 2.5\n" +
+		"vt 0 0\n" +
+		"f 1 2 3 4\n" +
+		"f 5/1 8/1 7/1 6/1\n" +
+		"f -8 -4 -3 -7\r\n" +
+		"f 4 3 7 8\n" +
+		"f 1 4 8 5\n" +
+		"f 2 6 7 3\n";
+
+	@Test
+	public void meshCubeMatchesBox() throws IOException {
+		TriangleMesh mesh = ObjLoader.load(new ByteArrayInputStream(CUBE.getBytes("UTF-8")), "cube.obj");
+		assertEquals(12, mesh.getTriangleCount());
+		Box box = new Box(1, 0, 2, 1, 1, 1, 0, 0, 0);
+		Material material = new Material(1, 1, 1, 0, 0, 0, 0, 0, 0, 1, 0);
+		Hit expected = new Hit();
+		Hit actual = new Hit();
+
+		SplittableRandom random = new SplittableRandom(11);
+		int hits = 0;
+		for (int i = 0; i < 2000; i++) {
+			double ox = random.nextDouble(-5, 5), oy = random.nextDouble(-5, 5), oz = random.nextDouble(-5, 5);
+			double dx = 1 + random.nextDouble(-1, 1) - ox;
+			double dy = random.nextDouble(-1, 1) - oy;
+			double dz = 2 + random.nextDouble(-1, 1) - oz;
+			double norm = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			dx /= norm;
+			dy /= norm;
+			dz /= norm;
+
+			double dist = box.getHitDistance(ox, oy, oz, dx, dy, dz);
+			assertEquals(dist, mesh.getHitDistance(ox, oy, oz, dx, dy, dz), 1e-9);
+			if (dist == -1 || dist < 1e-6)
+				continue;
+			hits++;
+			expected.set(new Primitive(box, material), dist, ox, oy, oz, dx, dy, dz);
+			actual.set(new Primitive(mesh, material), dist, ox, oy, oz, dx, dy, dz);
+			assertTrue(actual.triangle >= 0);
+			assertEquals(expected.nx, actual.nx, 1e-9);
+			assertEquals(expected.ny, actual.ny, 1e-9);
+			assertEquals(expected.nz, actual.nz, 1e-9);
+		}
+		assertTrue(hits > 500);
+	}
+
+	@Test
+	public void meshFilesAreSharedAndRelativeToTheScene() throws Exception {
+		File dir = Files.createTempDirectory("mesh").toFile();
+		Files.write(new File(dir, "Cube.obj").toPath(), CUBE.getBytes("UTF-8"));
+		File scene = new File(dir, "scene.txt");
+		Files.write(scene.toPath(), (
+			"cam 0 2 -10 1 0 2 0 1 0 1.5 1.2\n" +
+			"set 0.1 0.2 0.3 2 2\n" +
+			"mtl 0.9 0.2 0.2 1 1 1 0.2 0.2 0.2 30 0\n" +
+			"msh Cube.obj 1\n" +
+			"msh Cube.obj 1\n" +
+			"lgt 0 5 -5 1 1 1 1 0.8 1\n").getBytes("UTF-8"));
+
+		Scene parsed = RayTracer.parseScene(scene);
+		assertEquals(2, parsed.primitives.size());
+		assertTrue(parsed.primitives.get(0).shape instanceof TriangleMesh);
+		assertSame(parsed.primitives.get(0).shape, parsed.primitives.get(1).shape);
+	}
+
+	@Test
+	public void vertexNumbersAreParsedLikeDoubleParseDouble() throws IOException {
+		String[] numbers = {"0.12345678901234567890123", "-1.5e-30", "2.5E+25", "1e0", "-.5", "7."};
+		StringBuilder obj = new StringBuilder();
+		for (int i = 0; i < numbers.length; i++)
+			obj.append("v ").append(numbers[i]).append(' ').append(numbers[(i+1) % numbers.length]).append(" 0\n");
+		obj.append("f 1 2 3\n");
+		TriangleMesh mesh = ObjLoader.load(new ByteArrayInputStream(obj.toString().getBytes("UTF-8")), "numbers.obj");
+		for (int i = 0; i < numbers.length; i++)
+			assertEquals(numbers[i], (float) Double.parseDouble(numbers[i]), mesh.vertices[i*3], 0);
+
+		try {
+			ObjLoader.load(new ByteArrayInputStream("v 1 2 3x\n".getBytes()), "bad.obj");
+			fail();
+		} catch (IOException e) {
+			assertEquals("bad.obj:1: bad number", e.getMessage());
+		}
+	}
+
+	@Test
+	public void badFacesAreReportedWithTheirLine() {
+		String obj = "v 0 0 0\nv 1 0 0\nf 1 2 3\n";
+		try {
+			ObjLoader.load(new ByteArrayInputStream(obj.getBytes()), "bad.obj");
+			fail();
+		} catch (IOException e) {
+			assertEquals("bad.obj:3: vertex 3 out of range", e.getMessage());
+		}
+	}
+}
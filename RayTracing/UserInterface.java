@@ -18,7 +18,7 @@ public class UserInterface implements ActionListener{
 	private RayTracer tracer;
 	private Timer timer = new Timer(300, this);
 	private RenderSettings settings = new RenderSettings(500, 500, 10, 4, false, 4);
-	private Thread drawingThread;
+	private RenderJob job;
 
 	public UserInterface(){
 		try { UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName()); } 
@@ -26,6 +26,7 @@ public class UserInterface implements ActionListener{
 		view.setJMenuBar(new MenuBar(this));
 		view.pack();
 		timer.setInitialDelay(100);
+		settings.incremental = true;
 	}
 
 	public static void main(String[] args){
@@ -59,22 +60,24 @@ public class UserInterface implements ActionListener{
 		}
 
 		if (cmd.equals("Render") && scene != null){
-			tracer = new RayTracer(scene, settings);
+			// the same tracer re-renders only what the edits since changed
+			if (tracer == null || tracer.scene != scene || tracer.settings != settings)
+				tracer = new RayTracer(scene, settings);
 
-			tracer.halt = false;
+			view.setFrameBuffer(tracer.getFrameBuffer());
 
-			view.setImage(tracer.getImage());
-
-			drawingThread = new Thread(new Renderer());
-			drawingThread.start();
+			// the new job starts once the render of the old one has stopped
+			if (job != null)
+				job.cancel(false);
+			job = new RenderJob(tracer, 0, false).start();
 
 			timer.start();
 		}
 
 		if (cmd.equals("Stop") && scene != null) {
-			if (drawingThread != null) {
-				tracer.halt = true;
-				drawingThread = null;
+			if (job != null) {
+				job.cancel(false);
+				job = null;
 			}
 		}
 
@@ -96,13 +99,13 @@ public class UserInterface implements ActionListener{
 		if (cmd.equals("Add Sphere") && scene != null){
 			Primitive primitive = Dialogs.showAddSphereDialog(view, scene.materials);
 			if (primitive != null)
-				scene.primitives.add(primitive);
+				addPrimitive(primitive);
 		}
 		
 		if (cmd.equals("Add Plane") && scene != null){
 			Primitive primitive = Dialogs.showAddPlaneDialog(view, scene.materials);
 			if (primitive != null)
-				scene.primitives.add(primitive);
+				addPrimitive(primitive);
 		}
 		
 		if (cmd.equals("Set Camera") && scene != null){
@@ -113,16 +116,19 @@ public class UserInterface implements ActionListener{
 		
 		if (cmd.equals("Set Background Color") && scene != null){
 			Color color = Dialogs.showBackgroundColorDialog(view, scene.settings.background);
-			if (color != null)
+			if (color != null) {
 				scene.settings.background = color;
+				if (tracer != null && tracer.scene == scene)
+					tracer.backgroundChanged();
+			}
 		}
 		
 	}
 
-	class Renderer implements Runnable {
-		public void run() {
-			tracer.renderScene();
-		}
+	private void addPrimitive(Primitive primitive) {
+		scene.primitives.add(primitive);
+		if (tracer != null && tracer.scene == scene)
+			tracer.primitiveAdded(primitive);
 	}
 
 }
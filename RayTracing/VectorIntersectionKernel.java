@@ -0,0 +1,103 @@
+package RayTracing;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Intersection kernel that tests 4 spheres and axis aligned boxes per step,
+ * one BVH leaf at a time. Loads and stores run past the end of the range into
+ * the padding of PackedPrimitives and of the dist array, so no masks are
+ * needed. Only loaded by IntersectionKernel when jdk.incubator.vector is
+ * present.
+ */
+class VectorIntersectionKernel extends IntersectionKernel {
+
+	private static final VectorSpecies<Double> SPECIES =
+		DoubleVector.SPECIES_PREFERRED.length() >= BVH.MAX_LEAF_SIZE
+			? DoubleVector.SPECIES_256 : DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	void intersect(PackedPrimitives p, int start, int count,
+			double ox, double oy, double oz, double dx, double dy, double dz, double[] dist) {
+		int end = start + count;
+
+		// the helpers combine their results through dist, a vector returned
+		// from a method that C2 doesn't inline would be boxed
+		for (int i = start; i < end; i += SPECIES.length()) {
+			DoubleVector.broadcast(SPECIES, -1).intoArray(dist, i - start);
+			if (p.spheres > 0)
+				intersectSpheres(p, i, ox, oy, oz, dx, dy, dz, dist, i - start);
+			if (p.boxes > 0)
+				intersectBoxes(p, i, ox, oy, oz, 1/dx, 1/dy, 1/dz, dist, i - start);
+		}
+
+		// planes and unpacked primitives are rare enough to stay scalar
+		if (p.planes > 0 || p.others > 0) {
+			for (int i = start; i < end; i++) {
+				int kind = p.kind[i];
+				if (kind == PackedPrimitives.PLANE)
+					dist[i - start] = intersectPlane(p, i, ox, oy, oz, dx, dy, dz);
+				else if (kind == PackedPrimitives.OTHER)
+					dist[i - start] = p.primitives[i].shape.getHitDistance(ox, oy, oz, dx, dy, dz);
+			}
+		}
+	}
+
+	private static void intersectSpheres(PackedPrimitives p, int i,
+			double ox, double oy, double oz, double dx, double dy, double dz,
+			double[] dist, int offset) {
+		DoubleVector ocx = DoubleVector.fromArray(SPECIES, p.centerX, i).neg().add(ox);
+		DoubleVector ocy = DoubleVector.fromArray(SPECIES, p.centerY, i).neg().add(oy);
+		DoubleVector ocz = DoubleVector.fromArray(SPECIES, p.centerZ, i).neg().add(oz);
+		DoubleVector r2  = DoubleVector.fromArray(SPECIES, p.radiusSquared, i);
+
+		DoubleVector b = ocx.mul(dx).add(ocy.mul(dy)).add(ocz.mul(dz));
+		DoubleVector c = ocx.mul(ocx).add(ocy.mul(ocy)).add(ocz.mul(ocz)).sub(r2);
+		DoubleVector discriminant = b.mul(b).sub(c);
+		// NaN lanes (not a sphere) compare false and stay misses
+		VectorMask<Double> hit = discriminant.compare(VectorOperators.GE, 0);
+
+		DoubleVector root = discriminant.sqrt();
+		DoubleVector t1 = b.neg().sub(root);
+		DoubleVector t2 = b.neg().add(root);
+
+		DoubleVector previous = DoubleVector.fromArray(SPECIES, dist, offset);
+		DoubleVector miss = DoubleVector.broadcast(SPECIES, -1);
+		DoubleVector t = miss.blend(t2, t2.compare(VectorOperators.GT, 0));
+		t = t.blend(t1, t1.compare(VectorOperators.GE, 0));
+		previous.max(miss.blend(t, hit)).intoArray(dist, offset);
+	}
+
+	private static void intersectBoxes(PackedPrimitives p, int i,
+			double ox, double oy, double oz, double invX, double invY, double invZ,
+			double[] dist, int offset) {
+		DoubleVector tx1 = DoubleVector.fromArray(SPECIES, p.minX, i).sub(ox).mul(invX);
+		DoubleVector tx2 = DoubleVector.fromArray(SPECIES, p.maxX, i).sub(ox).mul(invX);
+		DoubleVector tmin = tx1.min(tx2);
+		DoubleVector tmax = tx1.max(tx2);
+
+		DoubleVector ty1 = DoubleVector.fromArray(SPECIES, p.minY, i).sub(oy).mul(invY);
+		DoubleVector ty2 = DoubleVector.fromArray(SPECIES, p.maxY, i).sub(oy).mul(invY);
+		tmin = tmin.max(ty1.min(ty2));
+		tmax = tmax.min(ty1.max(ty2));
+
+		DoubleVector tz1 = DoubleVector.fromArray(SPECIES, p.minZ, i).sub(oz).mul(invZ);
+		DoubleVector tz2 = DoubleVector.fromArray(SPECIES, p.maxZ, i).sub(oz).mul(invZ);
+		tmin = tmin.max(tz1.min(tz2));
+		tmax = tmax.min(tz1.max(tz2));
+
+		// NaN lanes (not a box) compare false and stay misses
+		VectorMask<Double> hit = tmax.compare(VectorOperators.GE, tmin)
+			.and(tmax.compare(VectorOperators.GE, 0));
+		DoubleVector t = tmin.blend(tmax, tmin.compare(VectorOperators.LT, 0));
+		DoubleVector previous = DoubleVector.fromArray(SPECIES, dist, offset);
+		previous.max(DoubleVector.broadcast(SPECIES, -1).blend(t, hit)).intoArray(dist, offset);
+	}
+
+	@Override
+	String getName() {
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+}
@@ -25,9 +25,17 @@ public class View extends JFrame {
 		setLocation(new java.awt.Point((screenSize.width-this.getWidth())/3, (screenSize.height-this.getHeight())/3));
 	}
 	
+	public void setFrameBuffer(FrameBuffer frameBuffer){
+		setCanvas(new Canvas(frameBuffer.getImage()));
+	}
+
 	public void setImage(BufferedImage image){
+		setCanvas(new Canvas(image));
+	}
+
+	private void setCanvas(Canvas canvas){
 		setPreferredSize(null);
-		setContentPane(new Canvas(image));
+		setContentPane(canvas);
 		pack();
 		setResizable(false);
 	}
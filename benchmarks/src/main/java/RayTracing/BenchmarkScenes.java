@@ -0,0 +1,103 @@
+package RayTracing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Scenes and rays shared by the benchmarks. Everything random is seeded so
+ * that runs are comparable.
+ */
+class BenchmarkScenes {
+
+	static final String[] BUNDLED = {"simple", "soft-shadows", "spheres"};
+
+	/**
+	 * Parses one of the scenes bundled in the scenes resource directory.
+	 */
+	static Scene load(String name) throws IOException, RayTracer.RayTracerException {
+		Path file = Files.createTempFile(name, ".txt");
+		try (InputStream in = BenchmarkScenes.class.getResourceAsStream("/scenes/" + name + ".txt")) {
+			if (in == null)
+				throw new IOException("No bundled scene " + name);
+			Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+			return RayTracer.parseScene(file.toString());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Spheres of radius 0.2 to 0.8 scattered in a box that grows with their
+	 * number, so that their density stays the same, over a plane.
+	 */
+	static Scene randomSpheres(int count, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		Scene scene = new Scene();
+		double extent = 2*Math.cbrt(count);
+		scene.camera = new Camera(0, extent/2, -3*extent, 0, 0, 0, 0, 1, 0, 1.5, 1.2);
+		scene.settings = new SceneSettings(0.1, 0.1, 0.15, 3, 3);
+
+		Material matte = new Material(0.7, 0.7, 0.7, 0, 0, 0, 0, 0, 0, 1, 0);
+		Material glass = new Material(0.2, 0.9, 0.2, 0.5, 0.5, 0.5, 0, 0, 0, 10, 0.5);
+		scene.materials.add(matte);
+		scene.materials.add(glass);
+
+		for (int i = 0; i < count; i++) {
+			Sphere sphere = new Sphere(
+				random.nextDouble(-extent, extent),
+				random.nextDouble(0, extent),
+				random.nextDouble(-extent, extent),
+				random.nextDouble(0.2, 0.8));
+			scene.primitives.add(new Primitive(sphere, i % 8 == 0 ? glass : matte));
+		}
+		scene.primitives.add(new Primitive(new Plane(0, 1, 0, -1), matte));
+		scene.lights.add(new Light(0, 2*extent, -extent, 1, 1, 1, 1, 0.8, 1));
+		return scene;
+	}
+
+	/**
+	 * Origins and unit directions, 6 doubles per ray, of the camera rays
+	 * through a width x height grid of pixels.
+	 */
+	static double[] cameraRays(Scene scene, int width, int height) {
+		scene.camera.build(width, height);
+		double[] rays = new double[width*height*6];
+		double[] ray = new double[6];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				scene.camera.getRayByPixelCoordinate(x + 0.5, y + 0.5, ray);
+				System.arraycopy(ray, 0, rays, (x + y*width)*6, 6);
+			}
+		}
+		return rays;
+	}
+
+	/**
+	 * Rays from random points around the origin towards random points of the
+	 * unit sphere, 6 doubles per ray.
+	 */
+	static double[] raysTowardsOrigin(int count, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		double[] rays = new double[count*6];
+		for (int i = 0; i < count; i++) {
+			double ox = random.nextDouble(-5, 5);
+			double oy = random.nextDouble(-5, 5);
+			double oz = random.nextDouble(-10, -5);
+			double dx = random.nextDouble(-1, 1) - ox;
+			double dy = random.nextDouble(-1, 1) - oy;
+			double dz = random.nextDouble(-1, 1) - oz;
+			double norm = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			rays[i*6]   = ox;
+			rays[i*6+1] = oy;
+			rays[i*6+2] = oz;
+			rays[i*6+3] = dx / norm;
+			rays[i*6+4] = dy / norm;
+			rays[i*6+5] = dz / norm;
+		}
+		return rays;
+	}
+}
@@ -0,0 +1,84 @@
+package RayTracing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rays per second through the acceleration structure: closest hits of camera
+ * rays, and exposure queries of shadow rays from those hits to the light, at
+ * several scene sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ClosestHitBenchmark {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final int RAYS = WIDTH*HEIGHT;
+
+	@Param({"100", "10000", "100000"})
+	public int spheres;
+
+	private Accelerator.Query query;
+	private double[] rays;
+	// per camera ray: the unit direction from the light to the hit and the
+	// distance up to the hit, 0 distance for misses
+	private double[] shadowRays;
+	private double lightX, lightY, lightZ;
+	private final Hit hit = new Hit();
+
+	@Setup
+	public void setup() {
+		Scene scene = BenchmarkScenes.randomSpheres(spheres, 1);
+		query = new Accelerator(scene.primitives).newQuery();
+		rays = BenchmarkScenes.cameraRays(scene, WIDTH, HEIGHT);
+
+		Vector light = scene.lights.get(0).position;
+		lightX = light.x;
+		lightY = light.y;
+		lightZ = light.z;
+		shadowRays = new double[RAYS*4];
+		for (int i = 0; i < RAYS; i++) {
+			int r = i*6;
+			if (!query.getClosestHit(rays[r], rays[r+1], rays[r+2], rays[r+3], rays[r+4], rays[r+5], hit))
+				continue;
+			double dx = hit.x - lightX;
+			double dy = hit.y - lightY;
+			double dz = hit.z - lightZ;
+			double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			shadowRays[i*4]   = dx / dist;
+			shadowRays[i*4+1] = dy / dist;
+			shadowRays[i*4+2] = dz / dist;
+			shadowRays[i*4+3] = dist - RayTracer.EPSILON;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public int closestHit() {
+		int hits = 0;
+		for (int r = 0; r < RAYS*6; r += 6) {
+			if (query.getClosestHit(rays[r], rays[r+1], rays[r+2], rays[r+3], rays[r+4], rays[r+5], hit))
+				hits++;
+		}
+		return hits;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public double shadowExposure() {
+		double exposure = 0;
+		for (int s = 0; s < RAYS*4; s += 4) {
+			if (shadowRays[s+3] > 0) {
+				exposure += query.getTransmittance(lightX, lightY, lightZ,
+					shadowRays[s], shadowRays[s+1], shadowRays[s+2], shadowRays[s+3]);
+			}
+		}
+		return exposure;
+	}
+}
@@ -0,0 +1,77 @@
+package RayTracing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Ray/shape intersection throughput, in rays per second, of every shape
+ * through Shape3D.getHitDistance, and of a BVH leaf of mixed primitives
+ * through each intersection kernel. About half of the rays hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class IntersectionBenchmark {
+
+	private static final int RAYS = 1024;
+
+	@Param({"sphere", "box", "rotated-box", "plane", "instance"})
+	public String shape;
+
+	@Param({"scalar", "vector"})
+	public String kernel;
+
+	private Shape3D target;
+	private double[] rays;
+	private PackedPrimitives leaf;
+	private IntersectionKernel intersectionKernel;
+	private final double[] dist = new double[IntersectionKernel.SCRATCH_SIZE];
+
+	@Setup
+	public void setup() {
+		switch (shape) {
+		case "sphere":      target = new Sphere(0, 0, 0, 1); break;
+		case "box":         target = new Box(0, 0, 0, 1.5, 1.5, 1.5, 0, 0, 0); break;
+		case "rotated-box": target = new Box(0, 0, 0, 1.5, 1.5, 1.5, 30, 45, 0); break;
+		case "plane":       target = new Plane(0.1, 1, 0.2, -0.5); break;
+		case "instance":    target = new Instance(new Sphere(0, 0, 0, 1), Transform.of(0, 0, 0, 0, 0, 30, 1, 0.5, 1)); break;
+		default: throw new IllegalArgumentException(shape);
+		}
+		rays = BenchmarkScenes.raysTowardsOrigin(RAYS, 1);
+
+		Material material = new Material(1, 1, 1, 0, 0, 0, 0, 0, 0, 1, 0);
+		leaf = new PackedPrimitives(new Primitive[] {
+			new Primitive(new Sphere(0, 0, 0, 1), material),
+			new Primitive(new Box(1, 0, 0, 1, 1, 1, 0, 0, 0), material),
+			new Primitive(new Sphere(-1, 0.5, 0, 0.5), material),
+			new Primitive(new Box(0, 1, 0.5, 1, 1, 1, 0, 0, 0), material)
+		});
+		intersectionKernel = kernel.equals("vector") ? new VectorIntersectionKernel() : new ScalarIntersectionKernel();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public double shape() {
+		double sum = 0;
+		for (int i = 0; i < RAYS*6; i += 6) {
+			sum += target.getHitDistance(rays[i], rays[i+1], rays[i+2], rays[i+3], rays[i+4], rays[i+5]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public double kernelLeaf() {
+		double sum = 0;
+		for (int i = 0; i < RAYS*6; i += 6) {
+			intersectionKernel.intersect(leaf, 0, leaf.size,
+				rays[i], rays[i+1], rays[i+2], rays[i+3], rays[i+4], rays[i+5], dist);
+			sum += dist[0];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,53 @@
+package RayTracing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * End to end RayTracer.renderScene of the bundled reference scenes, in renders
+ * per second. The primaryRays counter reports camera rays per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class RenderBenchmark {
+
+	@Param({"simple", "soft-shadows", "spheres"})
+	public String scene;
+
+	@Param({"200"})
+	public int size;
+
+	@Param({"1", "4"})
+	public int samples;
+
+	@Param({"1"})
+	public int threads;
+
+	private Scene parsed;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Rays {
+		public long primaryRays;
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		parsed = BenchmarkScenes.load(scene);
+	}
+
+	@Benchmark
+	public RayTracer render(Rays rays) {
+		RenderSettings settings = new RenderSettings(size, size,
+			parsed.settings.maxRecursionLevel, threads, samples > 1, samples);
+		RayTracer tracer = new RayTracer(parsed, settings);
+		tracer.renderScene();
+		rays.primaryRays += (long) size*size*samples;
+		return tracer;
+	}
+}
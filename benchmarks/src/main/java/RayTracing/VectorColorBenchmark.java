@@ -0,0 +1,65 @@
+package RayTracing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the Vector and Color operations the scene setup and the
+ * allocating code paths are built from. Run with -prof gc to see what each
+ * operation allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class VectorColorBenchmark {
+
+	private Vector a = new Vector(1, 2, 3);
+	private Vector b = new Vector(-0.5, 0.25, 2);
+	private Vector rotation = new Vector(30, 45, 10);
+	private Color c = new Color(0.2, 0.5, 0.7);
+	private Color d = new Color(0.9, 0.1, 0.4);
+
+	@Benchmark
+	public Vector vectorAdd() {
+		return a.add(b);
+	}
+
+	@Benchmark
+	public Vector vectorCross() {
+		return a.cross(b);
+	}
+
+	@Benchmark
+	public Vector vectorNormalize() {
+		return a.normalize();
+	}
+
+	@Benchmark
+	public Vector vectorReflection() {
+		return a.getReflectionAroundNormal(b);
+	}
+
+	@Benchmark
+	public Vector vectorRotate() {
+		return a.rotate(rotation);
+	}
+
+	@Benchmark
+	public Color colorSum() {
+		return Color.sum(c, d, c);
+	}
+
+	@Benchmark
+	public Color colorMultiply() {
+		return c.multiply(d);
+	}
+
+	@Benchmark
+	public int colorToRGB() {
+		return c.add(d).getRGB();
+	}
+}